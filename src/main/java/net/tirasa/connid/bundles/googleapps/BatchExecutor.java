@@ -0,0 +1,426 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonErrorContainer;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClient;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.util.ObjectParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Sends requests to the same API via Google JSON batch requests, in chunks of configurable size; each queued
+ * request is handled by its own {@link RequestResultHandler}, as with {@link GoogleAppsConnector#execute}.
+ * Parts failing because of throttling or transient backend errors are re-queued on their own and merged into
+ * later chunks, after exponential back-off, within a global retry budget.
+ */
+public class BatchExecutor {
+
+    private static final Log LOG = Log.getLog(BatchExecutor.class);
+
+    /**
+     * Maximum number of requests in a single batch, as per API limits.
+     */
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * Maximum number of retries of a single part, as for requests sent on their own.
+     */
+    private static final int MAX_RETRIES = 5;
+
+    /**
+     * Outcome of a batched request.
+     *
+     * @param <R> result type
+     */
+    public static final class BatchItem<R> {
+
+        private final String description;
+
+        private R result;
+
+        private RuntimeException error;
+
+        private boolean done = false;
+
+        private BatchItem(final String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public R getResult() {
+            return result;
+        }
+
+        public RuntimeException getError() {
+            return error;
+        }
+
+        public boolean isFailed() {
+            return null != error;
+        }
+
+        /**
+         * @return whether the outcome is available, either result or error
+         */
+        public boolean isDone() {
+            return done;
+        }
+    }
+
+    private final class Queued<G extends AbstractGoogleJsonClientRequest<T>, T, R> {
+
+        private final G request;
+
+        private final RequestResultHandler<G, T, R> handler;
+
+        private final BatchItem<R> item;
+
+        private final EndpointStatistics statistics;
+
+        private int retries = 0;
+
+        private boolean requeued = false;
+
+        Queued(final G request, final RequestResultHandler<G, T, R> handler) {
+            this.request = request;
+            this.handler = handler;
+            this.item = new BatchItem<>(
+                    IOStatistics.method(request) + ' ' + request.buildHttpRequestUrl().getRawPath());
+            this.statistics = ioStatistics.endpoint(request);
+        }
+
+        void queue(final BatchRequest batch) throws IOException {
+            requeued = false;
+
+            // as with AbstractGoogleJsonClientRequest#queue, but metering the part body read by the parser
+            HttpRequest httpRequest = request.buildHttpRequest();
+            httpRequest.setParser(new MeteredParser(httpRequest.getParser(), statistics::addResponseBytes));
+            long requestBytes = null == httpRequest.getContent()
+                    ? 0
+                    : Math.max(httpRequest.getContent().getLength(), 0);
+
+            batch.queue(httpRequest, request.getResponseClass(), GoogleJsonErrorContainer.class,
+                    new JsonBatchCallback<T>() {
+
+                @Override
+                public void onSuccess(final T value, final HttpHeaders responseHeaders) {
+                    statistics.addRequest(requestBytes, 0, true);
+                    statistics.addResponse(value);
+                    complete(() -> handler.handleResult(request, value));
+                }
+
+                @Override
+                public void onFailure(final GoogleJsonError error, final HttpHeaders responseHeaders) {
+                    statistics.addRequest(requestBytes, 0, false);
+                    onError(error, responseHeaders);
+                }
+            });
+        }
+
+        void onError(final GoogleJsonError error, final HttpHeaders responseHeaders) {
+            GoogleJsonResponseException e = new GoogleJsonResponseException(
+                    new HttpResponseException.Builder(error.getCode(), error.getMessage(), responseHeaders).
+                            setMessage(error.getCode() + " " + error.getMessage()),
+                    error);
+            String reason = null == error.getErrors() || error.getErrors().isEmpty()
+                    ? null
+                    : error.getErrors().get(0).getReason();
+            LOG.error("Unable to execute batched request {0} - {1} - {2}", item.description, error.getCode(), reason);
+
+            if (isRetryable(error.getCode(), reason) && retry()) {
+                return;
+            }
+            if (error.getCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+                complete(() -> handler.handleNotFound(e));
+            } else if (error.getCode() == 409 && "duplicate".equalsIgnoreCase(reason)) {
+                complete(() -> handler.handleDuplicate(e));
+            } else {
+                complete(() -> handler.handleError(e));
+            }
+        }
+
+        void onError(final IOException e) {
+            if (!retry()) {
+                complete(() -> handler.handleError(e));
+            }
+        }
+
+        /**
+         * Re-queues this part for a later chunk, if allowed by both per-part and global retry limits.
+         *
+         * @return whether this part was re-queued
+         */
+        boolean retry() {
+            if (retries >= MAX_RETRIES || retryBudget <= 0
+                    || System.currentTimeMillis() + backOff(retries + 1) + 1000 > deadline) {
+
+                LOG.error("Not retrying batched request {0}: {1} retries performed, {2} left in budget",
+                        item.description, retries, retryBudget);
+                return false;
+            }
+            retries++;
+            retryBudget--;
+            requeued = true;
+            queued.add(this);
+            return true;
+        }
+
+        boolean isPending() {
+            return !item.done && !requeued;
+        }
+
+        private void complete(final Supplier<R> outcome) {
+            try {
+                item.result = outcome.get();
+            } catch (RuntimeException e) {
+                item.error = e;
+            } finally {
+                item.done = true;
+            }
+        }
+    }
+
+    private final AbstractGoogleJsonClient client;
+
+    private final HttpRequestInitializer requestInitializer;
+
+    private final int batchSize;
+
+    private final IOStatistics ioStatistics;
+
+    private final long deadline;
+
+    private final Deque<Queued<?, ?, ?>> queued = new ArrayDeque<>();
+
+    private int retryBudget;
+
+    /**
+     * @param client API client
+     * @param requestInitializer HTTP request initializer for batch requests
+     * @param batchSize maximum number of requests per batch
+     * @param retryBudget maximum number of part retries for all the requests sent by this executor
+     * @param deadline time (epoch millis) after which no retry is attempted
+     * @param ioStatistics where to report requests and responses
+     */
+    public BatchExecutor(
+            final AbstractGoogleJsonClient client,
+            final HttpRequestInitializer requestInitializer,
+            final int batchSize,
+            final int retryBudget,
+            final long deadline,
+            final IOStatistics ioStatistics) {
+
+        this.client = client;
+        this.requestInitializer = requestInitializer;
+        this.batchSize = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        this.retryBudget = Math.max(0, retryBudget);
+        this.deadline = deadline;
+        this.ioStatistics = ioStatistics;
+    }
+
+    /**
+     * Queues the given request, to be sent with the next {@link #execute()}.
+     *
+     * @param <G> request type
+     * @param <T> response type
+     * @param <R> result type
+     * @param request request
+     * @param handler handler for request outcome
+     * @return outcome, available after {@link #execute()}
+     */
+    public <G extends AbstractGoogleJsonClientRequest<T>, T, R> BatchItem<R> queue(
+            final G request, final RequestResultHandler<G, T, R> handler) {
+
+        Queued<G, T, R> entry = new Queued<>(request, handler);
+        queued.add(entry);
+        return entry.item;
+    }
+
+    public int size() {
+        return queued.size();
+    }
+
+    /**
+     * Sends all queued requests, in chunks; parts to retry are appended to the queue and sent with later chunks.
+     *
+     * @return outcomes of all requests sent, in queue order
+     */
+    public List<BatchItem<?>> execute() {
+        List<BatchItem<?>> items = queued.stream().map(entry -> entry.item).collect(Collectors.toList());
+        while (!queued.isEmpty()) {
+            List<Queued<?, ?, ?>> chunk = new ArrayList<>(Math.min(batchSize, queued.size()));
+            while (!queued.isEmpty() && chunk.size() < batchSize) {
+                chunk.add(queued.poll());
+            }
+
+            int retries = chunk.stream().mapToInt(entry -> entry.retries).max().orElse(0);
+            if (retries > 0) {
+                long sleep = backOff(retries) + ThreadLocalRandom.current().nextLong(1000);
+                LOG.ok("Sending batch with retried requests in {0} ms", sleep);
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw ConnectorException.wrap(e);
+                }
+            }
+
+            send(chunk);
+        }
+        return items;
+    }
+
+    private void send(final List<Queued<?, ?, ?>> chunk) {
+        EndpointStatistics statistics = ioStatistics.endpoint("batch");
+        long[] requestBytes = new long[1];
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            // the multipart request, as sent: each part is also reported under its own API method
+            BatchRequest batch = client.batch(httpRequest -> {
+                if (null != requestInitializer) {
+                    requestInitializer.initialize(httpRequest);
+                }
+                HttpExecuteInterceptor interceptor = httpRequest.getInterceptor();
+                httpRequest.setInterceptor(sent -> {
+                    if (null != interceptor) {
+                        interceptor.intercept(sent);
+                    }
+                    requestBytes[0] += Math.max(sent.getContent().getLength(), 0);
+                });
+            });
+            for (Queued<?, ?, ?> entry : chunk) {
+                entry.queue(batch);
+            }
+            LOG.ok("Sending batch of {0} requests", batch.size());
+            batch.execute();
+            success = true;
+        } catch (IOException e) {
+            LOG.error(e, "Batch of {0} requests failed", chunk.size());
+            chunk.stream().filter(Queued::isPending).forEach(entry -> entry.onError(e));
+        } finally {
+            statistics.addRequest(requestBytes[0], System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Counts the bytes of each response body parsed, for batch parts which are not read via
+     * {@link RequestResultHandler#fetch}.
+     */
+    private static final class MeteredParser implements ObjectParser {
+
+        private final ObjectParser parser;
+
+        private final LongConsumer onClose;
+
+        MeteredParser(final ObjectParser parser, final LongConsumer onClose) {
+            this.parser = parser;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public <T> T parseAndClose(final InputStream in, final Charset charset, final Class<T> dataClass)
+                throws IOException {
+
+            return parser.parseAndClose(new MeteredInputStream(in, onClose), charset, dataClass);
+        }
+
+        @Override
+        public Object parseAndClose(final InputStream in, final Charset charset, final Type dataType)
+                throws IOException {
+
+            return parser.parseAndClose(new MeteredInputStream(in, onClose), charset, dataType);
+        }
+
+        @Override
+        public <T> T parseAndClose(final Reader reader, final Class<T> dataClass) throws IOException {
+            return parser.parseAndClose(reader, dataClass);
+        }
+
+        @Override
+        public Object parseAndClose(final Reader reader, final Type dataType) throws IOException {
+            return parser.parseAndClose(reader, dataType);
+        }
+    }
+
+    private static long backOff(final int retry) {
+        return (long) (1000 * Math.pow(2, retry - 1));
+    }
+
+    private static boolean isRetryable(final int code, final String reason) {
+        return (code == HttpStatusCodes.STATUS_CODE_FORBIDDEN
+                && ("rateLimitExceeded".equalsIgnoreCase(reason) || "userRateLimitExceeded".equalsIgnoreCase(reason)))
+                || (code == HttpStatusCodes.STATUS_CODE_SERVICE_UNAVAILABLE && "backendError".equalsIgnoreCase(reason));
+    }
+
+    /**
+     * Throws an exception reporting all failures among the given outcomes, if any.
+     *
+     * @param items batched request outcomes
+     */
+    public static void checkFailures(final List<BatchItem<?>> items) {
+        List<BatchItem<?>> failures = items.stream().filter(BatchItem::isFailed).collect(Collectors.toList());
+        if (failures.isEmpty()) {
+            return;
+        }
+
+        failures.forEach(failure -> LOG.error(failure.getError(), "Batched request {0} failed",
+                failure.getDescription()));
+        ConnectorException error = new ConnectorException(failures.size() + " of " + items.size()
+                + " batched requests failed: " + failures.stream().
+                        map(failure -> failure.getDescription() + " (" + failure.getError().getMessage() + ")").
+                        collect(Collectors.joining(", ")),
+                failures.get(0).getError());
+        failures.stream().skip(1).forEach(failure -> error.addSuppressed(failure.getError()));
+        throw error;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative I/O counters of a single API method, as users.list or licenseAssignments.listForProduct.
+ */
+public class EndpointStatistics {
+
+    private final boolean paged;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong pages = new AtomicLong();
+
+    private final AtomicLong entities = new AtomicLong();
+
+    private final AtomicLong requestBytes = new AtomicLong();
+
+    private final AtomicLong responseBytes = new AtomicLong();
+
+    private final AtomicLong totalTime = new AtomicLong();
+
+    public EndpointStatistics(final String method) {
+        this.paged = method.substring(method.lastIndexOf('.') + 1).startsWith("list");
+    }
+
+    /**
+     * Records a request execution.
+     *
+     * @param bytes request content length
+     * @param nanos time elapsed from request start until the response has been fully read
+     * @param success whether a response was received
+     */
+    public void addRequest(final long bytes, final long nanos, final boolean success) {
+        requests.incrementAndGet();
+        if (!success) {
+            errors.incrementAndGet();
+        }
+        requestBytes.addAndGet(bytes);
+        totalTime.addAndGet(nanos);
+    }
+
+    /**
+     * Records a decoded response: for list methods, a page and the entities found therein; otherwise a single
+     * entity, if any.
+     *
+     * @param value decoded response
+     */
+    public void addResponse(final Object value) {
+        if (paged) {
+            pages.incrementAndGet();
+            if (value instanceof Map) {
+                ((Map<?, ?>) value).values().stream().
+                        filter(Collection.class::isInstance).
+                        forEach(items -> entities.addAndGet(((Collection<?>) items).size()));
+            }
+        } else if (null != value) {
+            entities.incrementAndGet();
+        }
+    }
+
+    public void addEntities(final long count) {
+        entities.addAndGet(count);
+    }
+
+    public void addResponseBytes(final long bytes) {
+        responseBytes.addAndGet(bytes);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+
+    public long getEntities() {
+        return entities.get();
+    }
+
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    /**
+     * @return milliseconds spent executing requests and reading responses
+     */
+    public long getTotalTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalTime.get());
+    }
+
+    /**
+     * @return entities decoded per second of request time
+     */
+    public double getEntitiesPerSecond() {
+        long nanos = totalTime.get();
+        return nanos == 0 ? 0 : entities.get() * 1_000_000_000D / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointStatistics{"
+                + "requests=" + requests
+                + ", errors=" + errors
+                + ", pages=" + pages
+                + ", entities=" + entities
+                + ", requestBytes=" + requestBytes
+                + ", responseBytes=" + responseBytes
+                + ", totalTime=" + getTotalTime()
+                + '}';
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Process-wide registry of {@link GoogleAppsClients}, so that all configuration instances pointing to the same
+ * tenant share a single token cache, HTTP connection pool and client set.
+ */
+public final class GoogleAppsClientRegistry {
+
+    private static final Log LOG = Log.getLog(GoogleAppsClientRegistry.class);
+
+    private static final Map<String, Entry> CLIENTS = new HashMap<>();
+
+    private static class Entry {
+
+        private final GoogleAppsClients clients;
+
+        private int references = 0;
+
+        Entry(final GoogleAppsClients clients) {
+            this.clients = clients;
+        }
+    }
+
+    /**
+     * Returns the clients for the given configuration, building them if not available yet; each invocation must
+     * be matched by a {@link #release(GoogleAppsClients)}.
+     *
+     * @param configuration connector configuration
+     * @return shared clients
+     */
+    public static synchronized GoogleAppsClients acquire(final GoogleAppsConfiguration configuration) {
+        String key = key(configuration);
+
+        Entry entry = CLIENTS.get(key);
+        if (null == entry) {
+            LOG.ok("Building clients for {0}", configuration.getClientId());
+            entry = new Entry(new GoogleAppsClients(key, configuration));
+            CLIENTS.put(key, entry);
+        }
+        entry.references++;
+        return entry.clients;
+    }
+
+    /**
+     * Drops a reference to the given clients, closing them when no longer referenced.
+     *
+     * @param clients shared clients
+     */
+    public static synchronized void release(final GoogleAppsClients clients) {
+        Entry entry = CLIENTS.get(clients.getKey());
+        if (null != entry && entry.clients == clients && --entry.references <= 0) {
+            LOG.ok("Closing clients {0}", clients.getKey());
+            CLIENTS.remove(clients.getKey());
+            clients.close();
+        }
+    }
+
+    /**
+     * Identifies the clients to share: besides client id, (hashed) secrets and scopes, all settings affecting
+     * the way clients are built must match.
+     *
+     * @param configuration connector configuration
+     * @return registry key
+     */
+    private static String key(final GoogleAppsConfiguration configuration) {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        configuration.getClientSecret().access(chars -> hasher.putString(new String(chars), StandardCharsets.UTF_8));
+        hasher.putChar('|');
+        configuration.getRefreshToken().access(chars -> hasher.putString(new String(chars), StandardCharsets.UTF_8));
+
+        return configuration.getClientId()
+                + '|' + hasher.hash()
+                + '|' + StringUtil.join(GoogleAppsClients.SCOPES, GoogleAppsConnector.COMMA)
+                + '|' + configuration.getHttpTransport()
+                + '|' + configuration.getMaxConnections()
+                + '|' + configuration.getMaxConnectionsPerRoute()
+                + '|' + configuration.getConnectionIdleTimeout()
+                + '|' + configuration.getKeepAliveDuration()
+                + '|' + configuration.getGzipEncoding()
+                + '|' + configuration.getConnectTimeout()
+                + '|' + configuration.getReadTimeout()
+                + '|' + configuration.getTokenRefreshMargin()
+                + '|' + configuration.getWriteCoalescingWindow()
+                + '|' + configuration.getBatchSize()
+                + '|' + configuration.getBatchRetryBudget()
+                + '|' + configuration.getExpansionThreads()
+                + '|' + configuration.getExpansionQueueSize()
+                + '|' + configuration.getPrefetchThreads();
+    }
+
+    private GoogleAppsClientRegistry() {
+        // private constructor for static utility class
+    }
+}
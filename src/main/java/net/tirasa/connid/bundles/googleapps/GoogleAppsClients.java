@@ -0,0 +1,382 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import com.google.api.client.googleapis.services.GoogleClientRequestInitializer;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.admin.directory.Directory;
+import com.google.api.services.admin.directory.DirectoryScopes;
+import com.google.api.services.licensing.Licensing;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.auth.oauth2.UserCredentials;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.common.security.SecurityUtil;
+
+/**
+ * Thread-safe set of credentials, HTTP transport and API clients built for a given tenant; instances are
+ * shared among connector configurations via {@link GoogleAppsClientRegistry}.
+ */
+public class GoogleAppsClients {
+
+    private static final Log LOG = Log.getLog(GoogleAppsClients.class);
+
+    /**
+     * Global instance of the HTTP transport.
+     */
+    private static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
+
+    /**
+     * Global instance of the JSON factory.
+     */
+    private static final JsonFactory JSON_FACTORY = new GsonFactory();
+
+    /**
+     * Lifetime of access tokens issued by Google, in seconds.
+     */
+    public static final long ACCESS_TOKEN_LIFETIME = 3600;
+
+    /**
+     * Margin within which the authentication library itself refreshes tokens inline, in seconds: a background
+     * refresh within this margin would never happen before the inline one.
+     */
+    public static final long INLINE_REFRESH_MARGIN = 360;
+
+    /**
+     * Minimum time between two checks of the access token expiration, in milliseconds.
+     */
+    private static final long MIN_REFRESH_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    public static final List<String> SCOPES = Collections.unmodifiableList(Arrays.asList(
+            DirectoryScopes.ADMIN_DIRECTORY_USER,
+            DirectoryScopes.ADMIN_DIRECTORY_USER_ALIAS,
+            DirectoryScopes.ADMIN_DIRECTORY_USERSCHEMA,
+            DirectoryScopes.ADMIN_DIRECTORY_ORGUNIT,
+            DirectoryScopes.ADMIN_DIRECTORY_DOMAIN,
+            DirectoryScopes.ADMIN_DIRECTORY_NOTIFICATIONS,
+            DirectoryScopes.ADMIN_DIRECTORY_GROUP,
+            DirectoryScopes.ADMIN_DIRECTORY_GROUP_MEMBER));
+
+    private final String key;
+
+    private final GoogleCredentials credentials;
+
+    private final TransferStatistics transferStatistics = new TransferStatistics();
+
+    private final IOStatistics ioStatistics = new IOStatistics(transferStatistics);
+
+    private final HttpTransport transport;
+
+    private final HttpRequestInitializer requestInitializer;
+
+    private final Directory directory;
+
+    private final Licensing licensing;
+
+    private final ScheduledExecutorService tokenRefresher;
+
+    private final WriteCoalescer writeCoalescer;
+
+    private final ExecutorService expansionExecutor;
+
+    private final ExecutorService prefetchExecutor;
+
+    private final long minRefreshDelay;
+
+    private long warmUpTime = -1;
+
+    public GoogleAppsClients(final String key, final GoogleAppsConfiguration configuration) {
+        this(key, configuration, MIN_REFRESH_DELAY);
+    }
+
+    GoogleAppsClients(final String key, final GoogleAppsConfiguration configuration, final long minRefreshDelay) {
+        this.key = key;
+        this.minRefreshDelay = minRefreshDelay;
+
+        transport = HttpTransportFactory.NET.equals(configuration.getHttpTransport())
+                || StringUtil.isBlank(configuration.getHttpTransport())
+                ? HTTP_TRANSPORT
+                : HttpTransportFactory.build(configuration, transferStatistics);
+
+        // token requests go through the same transport as API requests
+        final UserCredentials.Builder credentialsBuilder =
+                UserCredentials.newBuilder()
+                        .setClientId(configuration.getClientId())
+                        .setClientSecret(SecurityUtil.decrypt(configuration.getClientSecret()))
+                        .setHttpTransportFactory(() -> transport);
+
+        configuration.getRefreshToken().access(chars -> credentialsBuilder.setRefreshToken(new String(chars)));
+
+        final UserCredentials userCredentials = credentialsBuilder.build();
+        credentials = userCredentials.createScoped(SCOPES);
+
+        requestInitializer = new GoogleAppsRequestInitializer(
+                credentials, configuration.getConnectTimeout(), configuration.getReadTimeout());
+        final boolean gzipEncoding = configuration.getGzipEncoding();
+        GoogleClientRequestInitializer clientRequestInitializer = request -> {
+            if (gzipEncoding) {
+                // gzip both request content and responses, whatever the library defaults
+                request.setDisableGZipContent(false);
+                request.getRequestHeaders().setAcceptEncoding("gzip");
+            }
+        };
+        directory = new Directory.Builder(transport, JSON_FACTORY, requestInitializer).
+                setApplicationName("ConnId").
+                setGoogleClientRequestInitializer(clientRequestInitializer).
+                build();
+        licensing = new Licensing.Builder(transport, JSON_FACTORY, requestInitializer).
+                setApplicationName("ConnId").
+                setGoogleClientRequestInitializer(clientRequestInitializer).
+                build();
+
+        ioStatistics.register(configuration.getClientId() + '@' + Integer.toHexString(key.hashCode()));
+
+        if (configuration.getTokenRefreshMargin() > 0) {
+            tokenRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "GoogleApps token refresher " + configuration.getClientId());
+                thread.setDaemon(true);
+                return thread;
+            });
+            long margin = TimeUnit.SECONDS.toMillis(configuration.getTokenRefreshMargin());
+            tokenRefresher.execute(() -> refreshToken(margin));
+        } else {
+            tokenRefresher = null;
+        }
+
+        writeCoalescer = configuration.getWriteCoalescingWindow() > 0
+                ? new WriteCoalescer(
+                        requestInitializer,
+                        ioStatistics,
+                        configuration.getWriteCoalescingWindow(),
+                        configuration.getBatchSize() > 0 ? configuration.getBatchSize() : BatchExecutor.MAX_BATCH_SIZE,
+                        configuration.getBatchRetryBudget())
+                : null;
+
+        if (configuration.getExpansionThreads() > 0) {
+            // when the queue is full, or the executor shut down, the searching thread performs the expansion itself
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    configuration.getExpansionThreads(), configuration.getExpansionThreads(),
+                    60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(configuration.getExpansionQueueSize()),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "GoogleApps expansion " + configuration.getClientId());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    (runnable, rejecting) -> runnable.run());
+            executor.allowCoreThreadTimeOut(true);
+            expansionExecutor = executor;
+        } else {
+            expansionExecutor = null;
+        }
+
+        // threads are only started when prefetch is used, and stopped when idle
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                configuration.getPrefetchThreads(), configuration.getPrefetchThreads(),
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "GoogleApps prefetch " + configuration.getClientId());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        prefetchExecutor = executor;
+    }
+
+    /**
+     * Renews the access token if it is going to expire within the given margin, then schedules the next check;
+     * the renewed token is atomically published by the credentials to all requests.
+     *
+     * @param margin milliseconds before expiration at which the token is renewed
+     */
+    private void refreshToken(final long margin) {
+        long delay;
+        try {
+            AccessToken token = credentials.getAccessToken();
+            if (null == token || null == token.getExpirationTime()
+                    || token.getExpirationTime().getTime() - System.currentTimeMillis() <= margin) {
+
+                credentials.refresh();
+                token = credentials.getAccessToken();
+                LOG.ok("Access token refreshed, expiring at {0}", token.getExpirationTime());
+            }
+            if (null == token.getExpirationTime()) {
+                return;
+            }
+            // never poll the token endpoint, even if the token is issued with a lifetime shorter than the margin
+            delay = Math.max(
+                    token.getExpirationTime().getTime() - System.currentTimeMillis() - margin, minRefreshDelay);
+        } catch (IOException e) {
+            LOG.error(e, "While refreshing access token, will try again");
+            delay = TimeUnit.SECONDS.toMillis(30);
+        }
+
+        try {
+            tokenRefresher.schedule(() -> refreshToken(margin), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.ok("Token refresher was shut down");
+        }
+    }
+
+    /**
+     * Obtains the access token and opens a connection to each API endpoint, unless already done.
+     */
+    public synchronized void warmUp() {
+        if (warmUpTime >= 0) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            credentials.refreshIfExpired();
+
+            Set<String> rootUrls = new LinkedHashSet<>();
+            rootUrls.add(directory.getRootUrl());
+            if (null != licensing) {
+                rootUrls.add(licensing.getRootUrl());
+            }
+
+            HttpRequestFactory requestFactory = transport.createRequestFactory(requestInitializer);
+            for (String rootUrl : rootUrls) {
+                // any response will do: ignore() releases the connection to the pool for the next request,
+                // while disconnect() would close it, throwing the TLS handshake away
+                requestFactory.buildHeadRequest(new GenericUrl(rootUrl)).
+                        setThrowExceptionOnExecuteError(false).
+                        execute().
+                        ignore();
+            }
+
+            warmUpTime = System.currentTimeMillis() - start;
+            LOG.info("Warm up of {0} completed in {1} ms", rootUrls, warmUpTime);
+        } catch (IOException e) {
+            LOG.warn(e, "Warm up failed after {0} ms", System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * @return milliseconds taken by {@link #warmUp()}, -1 if not performed (or failed)
+     */
+    public synchronized long getWarmUpTime() {
+        return warmUpTime;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public GoogleCredentials getCredentials() {
+        return credentials;
+    }
+
+    public TransferStatistics getTransferStatistics() {
+        return transferStatistics;
+    }
+
+    public HttpRequestInitializer getRequestInitializer() {
+        return requestInitializer;
+    }
+
+    public IOStatistics getIOStatistics() {
+        return ioStatistics;
+    }
+
+    public Directory getDirectory() {
+        return directory;
+    }
+
+    public Licensing getLicensing() {
+        return licensing;
+    }
+
+    /**
+     * @return write coalescer, or null if not enabled
+     */
+    public WriteCoalescer getWriteCoalescer() {
+        return writeCoalescer;
+    }
+
+    /**
+     * @return executor for expansion of search results, shared by all searches, or null if not enabled
+     */
+    public ExecutorService getExpansionExecutor() {
+        return expansionExecutor;
+    }
+
+    /**
+     * @return executor for prefetch of list pages, shared by all searches
+     */
+    public ExecutorService getPrefetchExecutor() {
+        return prefetchExecutor;
+    }
+
+    public void close() {
+        ioStatistics.unregister();
+        if (null != writeCoalescer) {
+            writeCoalescer.close();
+        }
+        if (null != expansionExecutor) {
+            // expansions not started yet are cancelled, not to leave searches waiting for them
+            expansionExecutor.shutdownNow().stream().
+                    filter(Future.class::isInstance).
+                    forEach(runnable -> ((Future<?>) runnable).cancel(true));
+        }
+        // pending fetches are cancelled as well, failing the searches waiting for them
+        prefetchExecutor.shutdownNow().stream().
+                filter(Future.class::isInstance).
+                forEach(runnable -> ((Future<?>) runnable).cancel(true));
+        if (null != tokenRefresher) {
+            tokenRefresher.shutdownNow();
+        }
+        if (transport != HTTP_TRANSPORT) {
+            try {
+                transport.shutdown();
+            } catch (IOException e) {
+                LOG.error(e, "While shutting down HTTP transport");
+            }
+        }
+    }
+}
@@ -24,28 +24,17 @@
 package net.tirasa.connid.bundles.googleapps;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.google.api.client.http.HttpRequestInitializer;
-import com.google.api.client.http.HttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.admin.directory.Directory;
-import com.google.api.services.admin.directory.DirectoryScopes;
 import com.google.api.services.licensing.Licensing;
-import com.google.auth.http.HttpCredentialsAdapter;
-import com.google.auth.oauth2.GoogleCredentials;
-import com.google.auth.oauth2.UserCredentials;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
-import org.identityconnectors.common.security.SecurityUtil;
 import org.identityconnectors.framework.common.exceptions.ConfigurationException;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.spi.AbstractConfiguration;
 import org.identityconnectors.framework.spi.ConfigurationProperty;
 import org.identityconnectors.framework.spi.StatefulConfiguration;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -56,16 +45,6 @@ public class GoogleAppsConfiguration extends AbstractConfiguration implements St
 
     private static final Log LOG = Log.getLog(GoogleAppsConfiguration.class);
 
-    /**
-     * Global instance of the HTTP transport.
-     */
-    private static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
-
-    /**
-     * Global instance of the JSON factory.
-     */
-    private static final JsonFactory JSON_FACTORY = new GsonFactory();
-
     private String domain = null;
 
     /**
@@ -80,11 +59,7 @@ public class GoogleAppsConfiguration extends AbstractConfiguration implements St
 
     private GuardedString refreshToken = null;
 
-    private GoogleCredentials credentials = null;
-
-    private Directory directory;
-
-    private Licensing licensing;
+    private GoogleAppsClients clients = null;
 
     private String projection = "basic";
 
@@ -96,6 +71,48 @@ public class GoogleAppsConfiguration extends AbstractConfiguration implements St
 
     private boolean removeLicenseOnDisable = false;
 
+    private String httpTransport = HttpTransportFactory.NET;
+
+    private int maxConnections = 20;
+
+    private int maxConnectionsPerRoute = 10;
+
+    private long connectionIdleTimeout = 30;
+
+    private long keepAliveDuration = 60;
+
+    private boolean gzipEncoding = false;
+
+    private int connectTimeout = 20000;
+
+    private int readTimeout = 20000;
+
+    private long operationTimeout = 0;
+
+    private boolean streamingDecoding = false;
+
+    private long tokenRefreshMargin = 0;
+
+    private boolean warmUp = false;
+
+    private int batchSize = 0;
+
+    private int batchRetryBudget = 50;
+
+    private long writeCoalescingWindow = 0;
+
+    private int expansionThreads = 0;
+
+    private int expansionQueueSize = 100;
+
+    private int prefetchDepth = 0;
+
+    private int prefetchThreads = 4;
+
+    private boolean shardedUserScan = false;
+
+    private int shardConcurrency = 2;
+
     @ConfigurationProperty(order = 1, displayMessageKey = "domain.display",
             groupMessageKey = "basic.group", helpMessageKey = "domain.help", required = true,
             confidential = false)
@@ -191,6 +208,220 @@ public class GoogleAppsConfiguration extends AbstractConfiguration implements St
         this.removeLicenseOnDisable = removeLicenseOnDisable;
     }
 
+    @ConfigurationProperty(displayMessageKey = "httpTransport.display",
+            helpMessageKey = "httpTransport.help", required = false, order = 10)
+    public String getHttpTransport() {
+        return httpTransport;
+    }
+
+    public void setHttpTransport(final String httpTransport) {
+        this.httpTransport = httpTransport;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "maxConnections.display",
+            helpMessageKey = "maxConnections.help", required = false, order = 11)
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(final int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "maxConnectionsPerRoute.display",
+            helpMessageKey = "maxConnectionsPerRoute.help", required = false, order = 12)
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "connectionIdleTimeout.display",
+            helpMessageKey = "connectionIdleTimeout.help", required = false, order = 13)
+    public long getConnectionIdleTimeout() {
+        return connectionIdleTimeout;
+    }
+
+    public void setConnectionIdleTimeout(final long connectionIdleTimeout) {
+        this.connectionIdleTimeout = connectionIdleTimeout;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "keepAliveDuration.display",
+            helpMessageKey = "keepAliveDuration.help", required = false, order = 14)
+    public long getKeepAliveDuration() {
+        return keepAliveDuration;
+    }
+
+    public void setKeepAliveDuration(final long keepAliveDuration) {
+        this.keepAliveDuration = keepAliveDuration;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "gzipEncoding.display",
+            helpMessageKey = "gzipEncoding.help", required = false, order = 15)
+    public boolean getGzipEncoding() {
+        return gzipEncoding;
+    }
+
+    public void setGzipEncoding(final boolean gzipEncoding) {
+        this.gzipEncoding = gzipEncoding;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "connectTimeout.display",
+            helpMessageKey = "connectTimeout.help", required = false, order = 16)
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(final int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "readTimeout.display",
+            helpMessageKey = "readTimeout.help", required = false, order = 17)
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(final int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "operationTimeout.display",
+            helpMessageKey = "operationTimeout.help", required = false, order = 18)
+    public long getOperationTimeout() {
+        return operationTimeout;
+    }
+
+    public void setOperationTimeout(final long operationTimeout) {
+        this.operationTimeout = operationTimeout;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "streamingDecoding.display",
+            helpMessageKey = "streamingDecoding.help", required = false, order = 19)
+    public boolean getStreamingDecoding() {
+        return streamingDecoding;
+    }
+
+    public void setStreamingDecoding(final boolean streamingDecoding) {
+        this.streamingDecoding = streamingDecoding;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "tokenRefreshMargin.display",
+            helpMessageKey = "tokenRefreshMargin.help", required = false, order = 20)
+    public long getTokenRefreshMargin() {
+        return tokenRefreshMargin;
+    }
+
+    public void setTokenRefreshMargin(final long tokenRefreshMargin) {
+        this.tokenRefreshMargin = tokenRefreshMargin;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "warmUp.display",
+            helpMessageKey = "warmUp.help", required = false, order = 21)
+    public boolean getWarmUp() {
+        return warmUp;
+    }
+
+    public void setWarmUp(final boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "batchSize.display",
+            helpMessageKey = "batchSize.help", required = false, order = 22)
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "batchRetryBudget.display",
+            helpMessageKey = "batchRetryBudget.help", required = false, order = 23)
+    public int getBatchRetryBudget() {
+        return batchRetryBudget;
+    }
+
+    public void setBatchRetryBudget(final int batchRetryBudget) {
+        this.batchRetryBudget = batchRetryBudget;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "writeCoalescingWindow.display",
+            helpMessageKey = "writeCoalescingWindow.help", required = false, order = 24)
+    public long getWriteCoalescingWindow() {
+        return writeCoalescingWindow;
+    }
+
+    public void setWriteCoalescingWindow(final long writeCoalescingWindow) {
+        this.writeCoalescingWindow = writeCoalescingWindow;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "expansionThreads.display",
+            helpMessageKey = "expansionThreads.help", required = false, order = 25)
+    public int getExpansionThreads() {
+        return expansionThreads;
+    }
+
+    public void setExpansionThreads(final int expansionThreads) {
+        this.expansionThreads = expansionThreads;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "expansionQueueSize.display",
+            helpMessageKey = "expansionQueueSize.help", required = false, order = 26)
+    public int getExpansionQueueSize() {
+        return expansionQueueSize;
+    }
+
+    public void setExpansionQueueSize(final int expansionQueueSize) {
+        this.expansionQueueSize = expansionQueueSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "prefetchDepth.display",
+            helpMessageKey = "prefetchDepth.help", required = false, order = 27)
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    public void setPrefetchDepth(final int prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "prefetchThreads.display",
+            helpMessageKey = "prefetchThreads.help", required = false, order = 29)
+    public int getPrefetchThreads() {
+        return prefetchThreads;
+    }
+
+    public void setPrefetchThreads(final int prefetchThreads) {
+        this.prefetchThreads = prefetchThreads;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "shardedUserScan.display",
+            helpMessageKey = "shardedUserScan.help", required = false, order = 28)
+    public boolean getShardedUserScan() {
+        return shardedUserScan;
+    }
+
+    public void setShardedUserScan(final boolean shardedUserScan) {
+        this.shardedUserScan = shardedUserScan;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "shardConcurrency.display",
+            helpMessageKey = "shardConcurrency.help", required = false, order = 30)
+    public int getShardConcurrency() {
+        return shardConcurrency;
+    }
+
+    public void setShardConcurrency(final int shardConcurrency) {
+        this.shardConcurrency = shardConcurrency;
+    }
+
+    public TransferStatistics getTransferStatistics() {
+        return getClients().getTransferStatistics();
+    }
+
     @Override
     public void validate() {
         if (StringUtil.isBlank(domain)) {
@@ -211,6 +442,56 @@ public class GoogleAppsConfiguration extends AbstractConfiguration implements St
                 && !"custom".equals(projection)) {
             throw new IllegalArgumentException("Projection must be a value among [basic, full, custom]");
         }
+        if (StringUtil.isNotBlank(httpTransport)
+                && !HttpTransportFactory.NET.equals(httpTransport)
+                && !HttpTransportFactory.APACHE.equals(httpTransport)
+                && !HttpTransportFactory.HTTP2.equals(httpTransport)) {
+            try {
+                HttpTransportFactory.transportClass(httpTransport);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("HTTP transport must be a value among [net, apache, http2] or "
+                        + "the name of an HttpTransport class which can be instantiated: " + e.getMessage(), e);
+            }
+        }
+        if (gzipEncoding && !HttpTransportFactory.APACHE.equals(httpTransport)) {
+            throw new IllegalArgumentException("Gzip encoding byte counts are only available with the apache HTTP "
+                    + "transport");
+        }
+        if (maxConnections <= 0 || maxConnectionsPerRoute <= 0) {
+            throw new IllegalArgumentException("Max connections (total and per route) must be greater than 0");
+        }
+        if (connectTimeout < 0 || readTimeout < 0 || operationTimeout < 0) {
+            throw new IllegalArgumentException("Timeouts cannot be negative");
+        }
+        if (tokenRefreshMargin != 0 && (tokenRefreshMargin <= GoogleAppsClients.INLINE_REFRESH_MARGIN
+                || tokenRefreshMargin >= GoogleAppsClients.ACCESS_TOKEN_LIFETIME)) {
+
+            throw new IllegalArgumentException("Token refresh margin must be 0, or between "
+                    + (GoogleAppsClients.INLINE_REFRESH_MARGIN + 1) + " and "
+                    + (GoogleAppsClients.ACCESS_TOKEN_LIFETIME - 1) + " seconds (access token lifetime)");
+        }
+        if (batchSize < 0 || batchSize > BatchExecutor.MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size must be between 0 and " + BatchExecutor.MAX_BATCH_SIZE);
+        }
+        if (batchRetryBudget < 0) {
+            throw new IllegalArgumentException("Batch retry budget cannot be negative");
+        }
+        if (writeCoalescingWindow < 0) {
+            throw new IllegalArgumentException("Write coalescing window cannot be negative");
+        }
+        if (prefetchDepth < 0) {
+            throw new IllegalArgumentException("Prefetch depth cannot be negative");
+        }
+        if (prefetchThreads <= 0) {
+            throw new IllegalArgumentException("Prefetch threads must be greater than 0");
+        }
+        if (shardConcurrency <= 0) {
+            throw new IllegalArgumentException("Shard concurrency must be greater than 0");
+        }
+        if (expansionThreads < 0 || expansionQueueSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Expansion threads cannot be negative and expansion queue size must be greater than 0");
+        }
         if (StringUtil.isNotBlank(customSchemaJSON)) {
             try {
                 GoogleAppsUtil.MAPPER.readValue(customSchemaJSON, new TypeReference<List<GoogleAppsCustomSchema>>() {
@@ -224,47 +505,33 @@ public class GoogleAppsConfiguration extends AbstractConfiguration implements St
 
     public void getGoogleCredential() {
         synchronized (this) {
-            if (null == credentials) {
-                final UserCredentials.Builder credentialsBuilder =
-                        UserCredentials.newBuilder()
-                                .setClientId(getClientId())
-                                .setClientSecret(SecurityUtil.decrypt(getClientSecret()));
-
-                getRefreshToken().access(chars -> credentialsBuilder.setRefreshToken(new String(chars)));
-
-                final UserCredentials userCredentials = credentialsBuilder.build();
-                credentials = userCredentials.createScoped(
-                        Arrays.asList(DirectoryScopes.ADMIN_DIRECTORY_USER,
-                                DirectoryScopes.ADMIN_DIRECTORY_USER_ALIAS,
-                                DirectoryScopes.ADMIN_DIRECTORY_USERSCHEMA,
-                                DirectoryScopes.ADMIN_DIRECTORY_ORGUNIT,
-                                DirectoryScopes.ADMIN_DIRECTORY_DOMAIN,
-                                DirectoryScopes.ADMIN_DIRECTORY_NOTIFICATIONS,
-                                DirectoryScopes.ADMIN_DIRECTORY_GROUP,
-                                DirectoryScopes.ADMIN_DIRECTORY_GROUP_MEMBER));
-
-                HttpRequestInitializer requestInitializer = new HttpCredentialsAdapter(credentials);
-                directory = new Directory.Builder(HTTP_TRANSPORT, JSON_FACTORY, requestInitializer).
-                        setApplicationName("ConnId").
-                        build();
-                licensing = new Licensing.Builder(HTTP_TRANSPORT, JSON_FACTORY, requestInitializer).
-                        setApplicationName("ConnId").
-                        build();
+            if (null == clients) {
+                clients = GoogleAppsClientRegistry.acquire(this);
             }
         }
     }
 
     @Override
     public void release() {
+        synchronized (this) {
+            if (null != clients) {
+                GoogleAppsClientRegistry.release(clients);
+                clients = null;
+            }
+        }
     }
 
-    public Directory getDirectory() {
+    public GoogleAppsClients getClients() {
         getGoogleCredential();
-        return directory;
+        return clients;
+    }
+
+    public Directory getDirectory() {
+        return getClients().getDirectory();
     }
 
     public Licensing getLicensing() {
-        getGoogleCredential();
+        Licensing licensing = getClients().getLicensing();
         if (null == licensing) {
             throw new ConnectorException("Licensing is not enabled");
         }
@@ -27,18 +27,26 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
+import java.util.stream.Collectors;
 import org.identityconnectors.common.Assertions;
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
 import org.identityconnectors.framework.common.exceptions.RetryableException;
 import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.Attribute;
@@ -57,6 +65,7 @@ import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.PredefinedAttributes;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.objects.ScriptContext;
 import org.identityconnectors.framework.common.objects.SchemaBuilder;
 import org.identityconnectors.framework.common.objects.SearchResult;
 import org.identityconnectors.framework.common.objects.SortKey;
@@ -66,6 +75,7 @@ import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
 import org.identityconnectors.framework.common.objects.filter.AndFilter;
 import org.identityconnectors.framework.common.objects.filter.Filter;
 import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
+import org.identityconnectors.framework.common.objects.filter.OrFilter;
 import org.identityconnectors.framework.common.objects.filter.StartsWithFilter;
 import org.identityconnectors.framework.spi.Configuration;
 import org.identityconnectors.framework.spi.Connector;
@@ -74,15 +84,20 @@ import org.identityconnectors.framework.spi.SearchResultsHandler;
 import org.identityconnectors.framework.spi.operations.CreateOp;
 import org.identityconnectors.framework.spi.operations.DeleteOp;
 import org.identityconnectors.framework.spi.operations.SchemaOp;
+import org.identityconnectors.framework.spi.operations.ScriptOnConnectorOp;
 import org.identityconnectors.framework.spi.operations.SearchOp;
 import org.identityconnectors.framework.spi.operations.TestOp;
 import org.identityconnectors.framework.spi.operations.UpdateOp;
 import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClient;
 import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
 import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.json.GenericJson;
 import com.google.api.services.admin.directory.Directory;
 import com.google.api.services.admin.directory.model.Alias;
+import com.google.api.services.admin.directory.model.Domains;
+import com.google.api.services.admin.directory.model.Domains2;
 import com.google.api.services.admin.directory.model.Group;
 import com.google.api.services.admin.directory.model.Groups;
 import com.google.api.services.admin.directory.model.Member;
@@ -104,7 +119,7 @@ import com.google.api.services.licensing.model.LicenseAssignmentList;
 @ConnectorClass(displayNameKey = "GoogleApps.connector.display",
         configurationClass = GoogleAppsConfiguration.class)
 public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, SchemaOp,
-        SearchOp<Filter>, TestOp, UpdateOp {
+        SearchOp<Filter>, TestOp, UpdateOp, ScriptOnConnectorOp {
 
     /**
      * Setup logging for the {@link GoogleAppsConnector}.
@@ -233,6 +248,33 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
 
     public static final String PHOTO_ATTR = "__PHOTO__";
 
+    /**
+     * Script language for {@link #runScriptOnConnector}: the script text is the name of a bulk operation.
+     */
+    public static final String SCRIPT_LANGUAGE = "GoogleApps";
+
+    /**
+     * Script text for {@link #runScriptOnConnector}, running {@link #bulkDelete} with {@link #OBJECT_CLASS_ARG} and
+     * {@link #UIDS_ARG} arguments.
+     */
+    public static final String BULK_DELETE_SCRIPT = "bulkDelete";
+
+    public static final String OBJECT_CLASS_ARG = "objectClass";
+
+    public static final String UIDS_ARG = "uids";
+
+    /**
+     * Script text for {@link #runScriptOnConnector}, running {@link #bulkCreateOrgunits} with
+     * {@link #ORGUNITS_ARG} argument: a list of attribute maps, each value being either single or a list.
+     * The result holds the outcomes by path under {@link #ORGUNITS_ARG}, and those of invalid definitions by
+     * position under {@link #INVALID_RESULT}.
+     */
+    public static final String BULK_CREATE_ORGUNITS_SCRIPT = "bulkCreateOrgunits";
+
+    public static final String ORGUNITS_ARG = "orgunits";
+
+    public static final String INVALID_RESULT = "invalid";
+
     /**
      * Place holder for the {@link Configuration} passed into the init() method
      * {@link GoogleAppsConnector#init(org.identityconnectors.framework.spi.Configuration)}
@@ -242,6 +284,11 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
 
     private Schema schema = null;
 
+    /**
+     * Time (in milliseconds) after which the current SPI operation should not attempt any further retry.
+     */
+    private volatile long deadline = Long.MAX_VALUE;
+
     /**
      * Gets the Configuration context for this connector.
      *
@@ -262,6 +309,9 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
     @Override
     public void init(final Configuration configuration) {
         this.configuration = (GoogleAppsConfiguration) configuration;
+        if (this.configuration.getWarmUp()) {
+            this.configuration.getClients().warmUp();
+        }
     }
 
     /**
@@ -289,9 +339,35 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             final Set<Attribute> createAttributes,
             final OperationOptions options) {
 
+        startOperation();
+
         final AttributesAccessor accessor = new AttributesAccessor(createAttributes);
 
         if (ObjectClass.ACCOUNT.equals(objectClass)) {
+            // all follow-up values are checked before the user is created, so that no compensation is needed
+            List<Object> aliases = accessor.findList(ALIASES_ATTR);
+            if (null != aliases) {
+                for (Object member : aliases) {
+                    if (null != member && !(member instanceof String)) {
+                        throw new InvalidAttributeValueException("Attribute 'aliases' must be a String list");
+                    }
+                }
+            }
+
+            Attribute photo = accessor.find(PHOTO_ATTR);
+            Object photoObject = null == photo ? null : AttributeUtil.getSingleValue(photo);
+            if (null != photoObject && !(photoObject instanceof byte[])) {
+                throw new InvalidAttributeValueException("Attribute 'photo' must be a single Map value");
+            }
+
+            Attribute isAdmin = accessor.find(IS_ADMIN_ATTR);
+            Boolean isAdminValue;
+            try {
+                isAdminValue = null == isAdmin ? null : AttributeUtil.getBooleanValue(isAdmin);
+            } catch (final Exception e) {
+                throw ConnectorException.wrap(e);
+            }
+
             Uid uid = execute(UserHandler.createUser(configuration.getDirectory().users(), accessor, configuration.
                     getCustomSchemasJSON()),
                     new RequestResultHandler<Directory.Users.Insert, User, Uid>() {
@@ -304,12 +380,14 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                 }
             });
 
-            List<Object> aliases = accessor.findList(ALIASES_ATTR);
+            // follow-up requests are sent together, if batching is enabled
+            final BatchExecutor batch = newBatch(configuration.getDirectory());
+
             if (null != aliases) {
                 final Directory.Users.Aliases aliasesService = configuration.getDirectory().users().aliases();
                 for (Object member : aliases) {
-                    if (member instanceof String) {
-                        String id = execute(UserHandler.createUserAlias(aliasesService, uid.getUidValue(),
+                    if (null != member) {
+                        executeOrQueue(batch, UserHandler.createUserAlias(aliasesService, uid.getUidValue(),
                                 (String) member),
                                 new RequestResultHandler<Directory.Users.Aliases.Insert, Alias, String>() {
 
@@ -320,71 +398,44 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                                 return value == null ? null : value.getId();
                             }
                         });
-
-                        if (null == id) {
-                            // TODO make warn about failed update
-                        }
-                    } else if (null != member) {
-                        // Delete user and Error or
-                        RetryableException e =
-                                RetryableException.wrap("Invalid attribute value: " + String.valueOf(member), uid);
-                        e.initCause(new InvalidAttributeValueException("Attribute 'aliases' must be a String list"));
-                        throw e;
                     }
                 }
             }
 
-            Attribute photo = accessor.find(PHOTO_ATTR);
-            if (null != photo) {
-                Object photoObject = AttributeUtil.getSingleValue(photo);
-                if (photoObject instanceof byte[]) {
-                    String id = execute(UserHandler.createUpdateUserPhoto(
-                            configuration.getDirectory().users().photos(), uid.getUidValue(), (byte[]) photoObject),
-                            new RequestResultHandler<Directory.Users.Photos.Update, UserPhoto, String>() {
+            if (null != photoObject) {
+                executeOrQueue(batch, UserHandler.createUpdateUserPhoto(
+                        configuration.getDirectory().users().photos(), uid.getUidValue(), (byte[]) photoObject),
+                        new RequestResultHandler<Directory.Users.Photos.Update, UserPhoto, String>() {
 
-                        @Override
-                        public String handleResult(final Directory.Users.Photos.Update request, final UserPhoto value) {
-                            return value == null ? null : value.getId();
-                        }
-                    });
-
-                    if (null == id) {
-                        // TODO make warn about failed update
+                    @Override
+                    public String handleResult(final Directory.Users.Photos.Update request, final UserPhoto value) {
+                        return value == null ? null : value.getId();
                     }
-
-                } else if (null != photoObject) {
-                    // Delete group and Error or
-                    RetryableException e = RetryableException.wrap("Invalid attribute value: "
-                            + String.valueOf(photoObject), uid);
-                    e.initCause(new InvalidAttributeValueException(
-                            "Attribute 'photo' must be a single Map value"));
-                    throw e;
-                }
+                });
             }
 
-            Attribute isAdmin = accessor.find(IS_ADMIN_ATTR);
-            if (null != isAdmin) {
+            if (null != isAdminValue && isAdminValue) {
                 try {
-                    Boolean isAdminValue = AttributeUtil.getBooleanValue(isAdmin);
-                    if (null != isAdminValue && isAdminValue) {
-                        UserMakeAdmin content = new UserMakeAdmin();
-                        content.setStatus(isAdminValue);
+                    UserMakeAdmin content = new UserMakeAdmin();
+                    content.setStatus(isAdminValue);
 
-                        execute(configuration.getDirectory().users().makeAdmin(uid.getUidValue(), content),
-                                new RequestResultHandler<Directory.Users.MakeAdmin, Void, Void>() {
+                    executeOrQueue(batch,
+                            configuration.getDirectory().users().makeAdmin(uid.getUidValue(), content),
+                            new RequestResultHandler<Directory.Users.MakeAdmin, Void, Void>() {
 
-                            @Override
-                            public Void handleResult(final Directory.Users.MakeAdmin request, final Void value) {
-                                return null;
-                            }
-                        });
-                    }
+                        @Override
+                        public Void handleResult(final Directory.Users.MakeAdmin request, final Void value) {
+                            return null;
+                        }
+                    });
                 } catch (final Exception e) {
                     // TODO Delete user and throw Exception
                     throw ConnectorException.wrap(e);
                 }
             }
 
+            executeFollowUps(batch, uid);
+
             return uid;
         } else if (ObjectClass.GROUP.equals(objectClass)) {
             // @formatter:off
@@ -412,13 +463,23 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             });
             List<Object> members = accessor.findList(MEMBERS_ATTR);
             if (null != members) {
+                // all members are checked before sending or queuing any insert
+                for (Object member : members) {
+                    if (null != member && !(member instanceof Map)) {
+                        throw invalidAttributeValue(member, uid, "Attribute 'members' must be a Map list");
+                    }
+                }
+
                 final Directory.Members membersService = configuration.getDirectory().members();
+                // member inserts are sent together, if batching is enabled
+                final BatchExecutor batch = newBatch(configuration.getDirectory());
                 for (Object member : members) {
-                    if (member instanceof Map) {
+                    if (null != member) {
                         String email = (String) ((Map) member).get(EMAIL_ATTR);
                         String role = (String) ((Map) member).get(ROLE_ATTR);
 
-                        String id = execute(GroupHandler.createMember(membersService, uid.getUidValue(), email, role),
+                        executeOrQueue(batch, GroupHandler.createMember(
+                                membersService, uid.getUidValue(), email, role),
                                 new RequestResultHandler<Directory.Members.Insert, Member, String>() {
 
                             @Override
@@ -427,18 +488,10 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                                 return value == null ? null : value.getId();
                             }
                         });
-
-                        if (null == id) {
-                            // TODO make warn about failed update
-                        }
-                    } else if (null != member) {
-                        // Delete group and Error or
-                        RetryableException e =
-                                RetryableException.wrap("Invalid attribute value: " + String.valueOf(member), uid);
-                        e.initCause(new InvalidAttributeValueException("Attribute 'members' must be a Map list"));
-                        throw e;
                     }
                 }
+
+                executeFollowUps(batch, uid);
             }
 
             return uid;
@@ -455,14 +508,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             });
         } else if (ORG_UNIT.equals(objectClass)) {
             return execute(OrgunitsHandler.createOrgunit(configuration.getDirectory().orgunits(), accessor),
-                    new RequestResultHandler<Directory.Orgunits.Insert, OrgUnit, Uid>() {
-
-                @Override
-                public Uid handleResult(final Directory.Orgunits.Insert request, final OrgUnit value) {
-                    LOG.ok("New OrgUnit is created:{0}", value.getName());
-                    return OrgunitsHandler.generateOrgUnitId(value);
-                }
-            });
+                    createOrgunitHandler());
         } else if (LICENSE_ASSIGNMENT.equals(objectClass)) {
             // @formatter:off
             /* AlreadyExistsException
@@ -502,8 +548,238 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
 
     }
 
+    protected RequestResultHandler<Directory.Orgunits.Insert, OrgUnit, Uid> createOrgunitHandler() {
+        return new RequestResultHandler<Directory.Orgunits.Insert, OrgUnit, Uid>() {
+
+            @Override
+            public Uid handleResult(final Directory.Orgunits.Insert request, final OrgUnit value) {
+                LOG.ok("New OrgUnit is created:{0}", value.getName());
+                return OrgunitsHandler.generateOrgUnitId(value);
+            }
+        };
+    }
+
+    /**
+     * Outcome of {@link #bulkCreateOrgunits}.
+     */
+    public static class BulkCreateOutcome {
+
+        private final Map<String, RuntimeException> created = new LinkedHashMap<>();
+
+        private final Map<Integer, RuntimeException> invalid = new LinkedHashMap<>();
+
+        /**
+         * @return outcome for each valid definition by OrgUnit path, in the given order: null if created,
+         * otherwise the error
+         */
+        public Map<String, RuntimeException> getCreated() {
+            return created;
+        }
+
+        /**
+         * @return error for each invalid definition, by its position among the given ones
+         */
+        public Map<Integer, RuntimeException> getInvalid() {
+            return invalid;
+        }
+    }
+
+    /**
+     * Creates the given OrgUnits, parents first: definitions are grouped by depth of their path, and each level is
+     * always sent in batches (see {@link #newBulkBatch}), once the previous one is completed. Parents not among
+     * the given definitions are expected to exist already; children of OrgUnits which could not be created (unless
+     * already existing) are not attempted. Invalid definitions are reported apart, by position, without affecting
+     * the others.
+     *
+     * @param orgunits OrgUnit definitions, with the same attributes as for {@link #create}
+     * @param options operation options
+     * @return outcome for each valid definition, by path, and for each invalid one, by position
+     * @throws InvalidAttributeValueException if more definitions share the same path, before sending any request
+     */
+    public BulkCreateOutcome bulkCreateOrgunits(
+            final Collection<Set<Attribute>> orgunits,
+            final OperationOptions options) {
+
+        startOperation();
+
+        BulkCreateOutcome outcome = new BulkCreateOutcome();
+        Map<String, RuntimeException> outcomes = outcome.getCreated();
+        SortedMap<Integer, Map<String, Directory.Orgunits.Insert>> levels = new TreeMap<>();
+        Set<String> duplicates = new LinkedHashSet<>();
+        int index = 0;
+        for (Set<Attribute> attributes : orgunits) {
+            AttributesAccessor accessor = new AttributesAccessor(attributes);
+            try {
+                Directory.Orgunits.Insert request =
+                        OrgunitsHandler.createOrgunit(configuration.getDirectory().orgunits(), accessor);
+                OrgUnit orgunit = (OrgUnit) request.getJsonContent();
+                if (StringUtil.isBlank(orgunit.getName())) {
+                    throw new InvalidAttributeValueException("Missing required attribute '__NAME__'");
+                }
+                // the parent path is normalized by OrgunitsHandler, as /corp/sales or /
+                String path = "/".equals(orgunit.getParentOrgUnitPath())
+                        ? orgunit.getName()
+                        : orgunit.getParentOrgUnitPath().substring(1) + '/' + orgunit.getName();
+
+                if (outcomes.containsKey(path)) {
+                    duplicates.add(path);
+                }
+                outcomes.put(path, null);
+                levels.computeIfAbsent(path.split("/").length, k -> new LinkedHashMap<>()).put(path, request);
+            } catch (RuntimeException e) {
+                LOG.error(e, "Invalid OrgUnit definition #{0}", index);
+                outcome.getInvalid().put(index, e);
+            }
+            index++;
+        }
+        if (!duplicates.isEmpty()) {
+            throw new InvalidAttributeValueException("Duplicate OrgUnit definitions: " + duplicates);
+        }
+
+        for (Map.Entry<Integer, Map<String, Directory.Orgunits.Insert>> level : levels.entrySet()) {
+            LOG.ok("Creating {0} OrgUnits at depth {1}", level.getValue().size(), level.getKey());
+
+            BatchExecutor batch = newBulkBatch(configuration.getDirectory());
+            Map<String, BatchExecutor.BatchItem<Uid>> items = new LinkedHashMap<>();
+            level.getValue().forEach((path, request) -> {
+                String parent = path.contains("/") ? path.substring(0, path.lastIndexOf('/')) : null;
+                RuntimeException parentError = null == parent ? null : outcomes.get(parent);
+                if (null != parentError && !(parentError instanceof AlreadyExistsException)) {
+                    outcomes.put(path, new ConnectorException("Parent OrgUnit " + parent + " was not created"));
+                } else {
+                    items.put(path, batch.queue(request, createOrgunitHandler()));
+                }
+            });
+
+            batch.execute();
+            items.forEach((path, item) -> outcomes.put(path, item.getError()));
+        }
+
+        LOG.ok("Bulk create of {0} OrgUnits: {1} invalid, {2} failed", orgunits.size(), outcome.getInvalid().size(),
+                outcomes.values().stream().filter(Objects::nonNull).count());
+        return outcome;
+    }
+
     @Override
     public void delete(final ObjectClass objectClass, final Uid uid, final OperationOptions options) {
+        startOperation();
+
+        doDelete(objectClass, uid);
+    }
+
+    protected void doDelete(final ObjectClass objectClass, final Uid uid) {
+        execute(deleteRequest(objectClass, uid), deleteHandler(objectClass, uid));
+    }
+
+    /**
+     * Deletes the given objects, all of the same class; requests are always sent in batches, see
+     * {@link #newBulkBatch}.
+     *
+     * @param objectClass object class
+     * @param uids objects to delete
+     * @param options operation options
+     * @return outcome for each Uid, in the given order: null if deleted, otherwise the error
+     */
+    public Map<Uid, RuntimeException> bulkDelete(
+            final ObjectClass objectClass,
+            final Collection<Uid> uids,
+            final OperationOptions options) {
+
+        startOperation();
+
+        BatchExecutor batch = newBulkBatch(LICENSE_ASSIGNMENT.equals(objectClass)
+                ? configuration.getLicensing()
+                : configuration.getDirectory());
+
+        Map<Uid, RuntimeException> outcomes = new LinkedHashMap<>();
+        Map<Uid, BatchExecutor.BatchItem<Void>> items = new LinkedHashMap<>();
+        for (Uid uid : uids) {
+            outcomes.put(uid, null);
+            try {
+                items.put(uid, batch.queue(deleteRequest(objectClass, uid), deleteHandler(objectClass, uid)));
+            } catch (UnsupportedOperationException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                LOG.error(e, "Could not delete {0}", uid.getUidValue());
+                outcomes.put(uid, e);
+            }
+        }
+
+        batch.execute();
+        items.forEach((uid, item) -> outcomes.put(uid, item.getError()));
+
+        LOG.ok("Bulk delete of {0} {1} objects: {2} failed", uids.size(), objectClass.getObjectClassValue(),
+                outcomes.values().stream().filter(Objects::nonNull).count());
+        return outcomes;
+    }
+
+    /**
+     * Runs the bulk operation named by the script text, for {@link #SCRIPT_LANGUAGE}.
+     *
+     * @param request script text and arguments
+     * @param options operation options
+     * @return outcome for each object, in the given order: null if successful, otherwise the error message
+     */
+    @Override
+    public Object runScriptOnConnector(final ScriptContext request, final OperationOptions options) {
+        if (!SCRIPT_LANGUAGE.equalsIgnoreCase(request.getScriptLanguage())) {
+            throw new UnsupportedOperationException("Unsupported script language: " + request.getScriptLanguage());
+        }
+
+        String script = StringUtil.isBlank(request.getScriptText()) ? null : request.getScriptText().trim();
+        if (BULK_DELETE_SCRIPT.equals(script)) {
+            Object objectClass = request.getScriptArguments().get(OBJECT_CLASS_ARG);
+            Object uids = request.getScriptArguments().get(UIDS_ARG);
+            if (!(objectClass instanceof String) || !(uids instanceof Collection)) {
+                throw new InvalidAttributeValueException("Script " + BULK_DELETE_SCRIPT + " requires arguments '"
+                        + OBJECT_CLASS_ARG + "' (String) and '" + UIDS_ARG + "' (String list)");
+            }
+
+            Map<Uid, RuntimeException> outcomes = bulkDelete(
+                    new ObjectClass((String) objectClass),
+                    ((Collection<?>) uids).stream().map(uid -> new Uid(String.valueOf(uid))).
+                            collect(Collectors.toList()),
+                    options);
+
+            Map<String, String> result = new LinkedHashMap<>();
+            outcomes.forEach((uid, error) -> result.put(uid.getUidValue(), null == error ? null : error.getMessage()));
+            return result;
+        }
+        if (BULK_CREATE_ORGUNITS_SCRIPT.equals(script)) {
+            Object orgunits = request.getScriptArguments().get(ORGUNITS_ARG);
+            if (!(orgunits instanceof Collection)
+                    || ((Collection<?>) orgunits).stream().anyMatch(orgunit -> !(orgunit instanceof Map))) {
+
+                throw new InvalidAttributeValueException("Script " + BULK_CREATE_ORGUNITS_SCRIPT
+                        + " requires argument '" + ORGUNITS_ARG + "' (Map list)");
+            }
+
+            List<Set<Attribute>> definitions = new ArrayList<>();
+            for (Object orgunit : (Collection<?>) orgunits) {
+                Set<Attribute> attributes = new LinkedHashSet<>();
+                ((Map<?, ?>) orgunit).forEach((name, value) -> attributes.add(value instanceof Collection
+                        ? AttributeBuilder.build(String.valueOf(name), (Collection<?>) value)
+                        : AttributeBuilder.build(String.valueOf(name), value)));
+                definitions.add(attributes);
+            }
+
+            BulkCreateOutcome outcome = bulkCreateOrgunits(definitions, options);
+
+            Map<String, String> created = new LinkedHashMap<>();
+            outcome.getCreated().forEach((path, error) -> created.put(path, null == error ? null : error.getMessage()));
+            Map<Integer, String> invalid = new LinkedHashMap<>();
+            outcome.getInvalid().forEach((position, error) -> invalid.put(position, error.getMessage()));
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put(ORGUNITS_ARG, created);
+            result.put(INVALID_RESULT, invalid);
+            return result;
+        }
+
+        throw new UnsupportedOperationException("Unsupported script: " + script);
+    }
+
+    protected AbstractGoogleJsonClientRequest<Void> deleteRequest(final ObjectClass objectClass, final Uid uid) {
         AbstractGoogleJsonClientRequest<Void> request = null;
 
         try {
@@ -548,8 +824,13 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             throw new UnsupportedOperationException("Delete of type"
                     + objectClass.getObjectClassValue() + " is not supported");
         }
+        return request;
+    }
 
-        execute(request, new RequestResultHandler<AbstractGoogleJsonClientRequest<Void>, Void, Void>() {
+    protected RequestResultHandler<AbstractGoogleJsonClientRequest<Void>, Void, Void> deleteHandler(
+            final ObjectClass objectClass, final Uid uid) {
+
+        return new RequestResultHandler<AbstractGoogleJsonClientRequest<Void>, Void, Void>() {
 
             @Override
             public Void handleResult(final AbstractGoogleJsonClientRequest<Void> request, final Void value) {
@@ -560,7 +841,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             public Void handleNotFound(final IOException e) {
                 throw new UnknownUidException(uid, objectClass);
             }
-        });
+        };
     }
 
     @Override
@@ -612,9 +893,19 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             final ResultsHandler handler,
             final OperationOptions options) {
 
+        startOperation();
+
         final Set<String> attributesToGet = getAttributesToGet(objectClass, options);
         Attribute key = getKeyFromFilter(objectClass, query);
 
+        if (null == key) {
+            Set<String> keys = getKeysFromFilter(objectClass, query);
+            if (null != keys) {
+                readByKeys(objectClass, keys, handler, options, attributesToGet);
+                return;
+            }
+        }
+
         if (ObjectClass.ACCOUNT.equals(objectClass)) {
             if (null == key || null == key.getValue() || key.getValue().isEmpty() || null == key.getValue().get(0)) {
                 // Search request
@@ -687,24 +978,50 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                         }
                     }
 
-                    String nextPageToken = null;
-                    do {
-                        nextPageToken = execute(request,
-                                new RequestResultHandler<Directory.Users.List, Users, String>() {
+                    RequestResultHandler<Directory.Users.List, Users, String> pageHandler =
+                            new RequestResultHandler<Directory.Users.List, Users, String>() {
 
-                            @Override
-                            public String handleResult(final Directory.Users.List request, final Users value) {
-                                if (null != value.getUsers()) {
-                                    for (User user : value.getUsers()) {
-                                        handler.handle(fromUser(
-                                                user, attributesToGet, configuration.getDirectory().groups()));
-                                    }
+                        private final OrderedExpansion<ConnectorObject> expansion =
+                                newExpansion(handler, attributesToGet, PredefinedAttributes.GROUPS_NAME);
+
+                        @Override
+                        public Users fetch(
+                                final Directory.Users.List request,
+                                final EndpointStatistics statistics) throws IOException {
+
+                            return configuration.getStreamingDecoding()
+                                    ? StreamingPageParser.parse(
+                                            request, "users", User.class, this::handle, statistics)
+                                    : super.fetch(request, statistics);
+                        }
+
+                        @Override
+                        public String handleResult(final Directory.Users.List request, final Users value) {
+                            if (null != value.getUsers()) {
+                                for (User user : value.getUsers()) {
+                                    handle(user);
                                 }
-                                return value.getNextPageToken();
                             }
-                        });
-                        request.setPageToken(nextPageToken);
-                    } while (!paged && StringUtil.isNotBlank(nextPageToken));
+                            expansion.flush();
+                            return value.getNextPageToken();
+                        }
+
+                        private void handle(final User user) {
+                            expansion.submit(() -> fromUser(
+                                    user, attributesToGet, configuration.getDirectory().groups()));
+                        }
+                    };
+
+                    String nextPageToken = null;
+                    List<Directory.Users.List> shards = configuration.getShardedUserScan()
+                            && !paged && null == query && null == options.getSortKeys()
+                            ? userShards(request)
+                            : Collections.emptyList();
+                    if (shards.size() > 1) {
+                        executeShards(shards, pageHandler);
+                    } else {
+                        nextPageToken = executeList(request, pageHandler, paged);
+                    }
 
                     if (paged && StringUtil.isNotBlank(nextPageToken)) {
                         LOG.info("Paged Search was requested and next token is:{0}", nextPageToken);
@@ -718,26 +1035,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             } else {
                 // Read request
                 try {
-                    Directory.Users.Get request =
-                            configuration.getDirectory().users().get((String) key.getValue().get(0));
-                    request.setFields(getFields(options, ID_ATTR, ETAG_ATTR, PRIMARY_EMAIL_ATTR));
-                    request.setProjection(configuration.getProjection());
-
-                    execute(request,
-                            new RequestResultHandler<Directory.Users.Get, User, Boolean>() {
-
-                        @Override
-                        public Boolean handleResult(final Directory.Users.Get request, final User user) {
-                            return handler.handle(
-                                    fromUser(user, attributesToGet, configuration.getDirectory().groups()));
-                        }
-
-                        @Override
-                        public Boolean handleNotFound(IOException e) {
-                            // Do nothing if not found
-                            return true;
-                        }
-                    });
+                    execute(getUser((String) key.getValue().get(0), options), readUser(handler, attributesToGet));
                 } catch (IOException e) {
                     LOG.warn(e, "Failed to initialize Users#Get");
                     throw ConnectorException.wrap(e);
@@ -770,24 +1068,39 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                         request.setFields("nextPageToken,groups(" + fields + ")");
                     }
 
-                    String nextPageToken = null;
-                    do {
-                        nextPageToken = execute(request,
-                                new RequestResultHandler<Directory.Groups.List, Groups, String>() {
+                    String nextPageToken = executeList(request,
+                            new RequestResultHandler<Directory.Groups.List, Groups, String>() {
 
-                            @Override
-                            public String handleResult(final Directory.Groups.List request, final Groups value) {
-                                if (null != value.getGroups()) {
-                                    for (Group group : value.getGroups()) {
-                                        handler.handle(fromGroup(
-                                                group, attributesToGet, configuration.getDirectory().members()));
-                                    }
+                        private final OrderedExpansion<ConnectorObject> expansion =
+                                newExpansion(handler, attributesToGet, MEMBERS_ATTR);
+
+                        @Override
+                        public Groups fetch(
+                                final Directory.Groups.List request,
+                                final EndpointStatistics statistics) throws IOException {
+
+                            return configuration.getStreamingDecoding()
+                                    ? StreamingPageParser.parse(
+                                            request, "groups", Group.class, this::handle, statistics)
+                                    : super.fetch(request, statistics);
+                        }
+
+                        @Override
+                        public String handleResult(final Directory.Groups.List request, final Groups value) {
+                            if (null != value.getGroups()) {
+                                for (Group group : value.getGroups()) {
+                                    handle(group);
                                 }
-                                return value.getNextPageToken();
                             }
-                        });
-                        request.setPageToken(nextPageToken);
-                    } while (!paged && StringUtil.isNotBlank(nextPageToken));
+                            expansion.flush();
+                            return value.getNextPageToken();
+                        }
+
+                        private void handle(final Group group) {
+                            expansion.submit(() -> fromGroup(
+                                    group, attributesToGet, configuration.getDirectory().members()));
+                        }
+                    }, paged);
 
                     if (paged && StringUtil.isNotBlank(nextPageToken)) {
                         LOG.info("Paged Search was requested");
@@ -802,24 +1115,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                 // Read request
 
                 try {
-                    Directory.Groups.Get request =
-                            configuration.getDirectory().groups().get((String) key.getValue().get(0));
-                    request.setFields(getFields(options, ID_ATTR, ETAG_ATTR, EMAIL_ATTR));
-
-                    execute(request, new RequestResultHandler<Directory.Groups.Get, Group, Boolean>() {
-
-                        @Override
-                        public Boolean handleResult(final Directory.Groups.Get request, final Group value) {
-                            return handler.handle(fromGroup(value, attributesToGet,
-                                    configuration.getDirectory().members()));
-                        }
-
-                        @Override
-                        public Boolean handleNotFound(final IOException e) {
-                            // Do nothing if not found
-                            return true;
-                        }
-                    });
+                    execute(getGroup((String) key.getValue().get(0), options), readGroup(handler, attributesToGet));
                 } catch (IOException e) {
                     LOG.warn(e, "Failed to initialize Groups#Get");
                     throw ConnectorException.wrap(e);
@@ -844,6 +1140,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                         throw new InvalidAttributeValueException("The 'groupKey' can not be blank.");
                     }
                     Directory.Members.List request = configuration.getDirectory().members().list(groupKey);
+                    request.setFields("nextPageToken,members(" + GroupHandler.getMemberFields(options) + ")");
 
                     boolean paged = false;
                     // Groups
@@ -853,25 +1150,36 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                     }
                     request.setPageToken(options.getPagedResultsCookie());
 
-                    String nextPageToken = null;
-                    do {
-                        nextPageToken = execute(request,
-                                new RequestResultHandler<Directory.Members.List, Members, String>() {
+                    String nextPageToken = executeList(request,
+                            new RequestResultHandler<Directory.Members.List, Members, String>() {
 
-                            @Override
-                            public String handleResult(
-                                    final Directory.Members.List request,
-                                    final Members value) {
-                                if (null != value.getMembers()) {
-                                    for (Member group : value.getMembers()) {
-                                        handler.handle(GroupHandler.fromMember(request.getGroupKey(), group));
-                                    }
+                        @Override
+                        public Members fetch(
+                                final Directory.Members.List request,
+                                final EndpointStatistics statistics) throws IOException {
+
+                            return configuration.getStreamingDecoding()
+                                    ? StreamingPageParser.parse(request, "members", Member.class,
+                                            member -> handle(request.getGroupKey(), member), statistics)
+                                    : super.fetch(request, statistics);
+                        }
+
+                        @Override
+                        public String handleResult(
+                                final Directory.Members.List request,
+                                final Members value) {
+                            if (null != value.getMembers()) {
+                                for (Member group : value.getMembers()) {
+                                    handle(request.getGroupKey(), group);
                                 }
-                                return value.getNextPageToken();
                             }
-                        });
-                        request.setPageToken(nextPageToken);
-                    } while (!paged && StringUtil.isNotBlank(nextPageToken));
+                            return value.getNextPageToken();
+                        }
+
+                        private void handle(final String groupKey, final Member member) {
+                            handler.handle(GroupHandler.fromMember(groupKey, member));
+                        }
+                    }, paged);
 
                     if (paged && StringUtil.isNotBlank(nextPageToken)) {
                         LOG.info("Paged Search was requested");
@@ -891,6 +1199,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                     }
 
                     Directory.Members.Get request = configuration.getDirectory().members().get(ids[0], ids[1]);
+                    request.setFields(GroupHandler.getMemberFields(options));
 
                     execute(request,
                             new RequestResultHandler<Directory.Members.Get, Member, Boolean>() {
@@ -965,24 +1274,8 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             } else {
                 // Read request
                 try {
-                    Directory.Orgunits.Get request = configuration.getDirectory().orgunits().
-                            get(MY_CUSTOMER_ID, Arrays.asList((String) key.getValue().get(0)));
-                    request.setFields(getFields(options, ORG_UNIT_PATH_ATTR, ETAG_ATTR, NAME_ATTR));
-
-                    execute(request,
-                            new RequestResultHandler<Directory.Orgunits.Get, OrgUnit, Boolean>() {
-
-                        @Override
-                        public Boolean handleResult(Directory.Orgunits.Get request, OrgUnit value) {
-                            return handler.handle(OrgunitsHandler.fromOrgunit(value, attributesToGet));
-                        }
-
-                        @Override
-                        public Boolean handleNotFound(IOException e) {
-                            // Do nothing if not found
-                            return true;
-                        }
-                    });
+                    execute(getOrgunit((String) key.getValue().get(0), options),
+                            readOrgunit(handler, attributesToGet));
                 } catch (IOException e) {
                     LOG.warn(e, "Failed to initialize OrgUnits#Get");
                     throw ConnectorException.wrap(e);
@@ -992,72 +1285,67 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             if (null == key) {
                 // Search request
                 try {
-                    String productId = "";
-                    String skuId = "";
+                    List<LicensingRequest<LicenseAssignmentList>> requests = licenseAssignmentSearches();
 
-                    boolean paged = false;
-
-                    LicensingRequest<LicenseAssignmentList> request = null;
+                    RequestResultHandler<LicensingRequest<LicenseAssignmentList>, LicenseAssignmentList, String>
+                            pageHandler = new RequestResultHandler<
+                                    LicensingRequest<LicenseAssignmentList>, LicenseAssignmentList, String>() {
 
-                    if (StringUtil.isBlank(productId)) {
-                        // TODO iterate over the three productids
-                        throw new ConnectorException("productId is required");
-                    } else if (StringUtil.isBlank(skuId)) {
-                        Licensing.LicenseAssignments.ListForProduct r =
-                                configuration.getLicensing().licenseAssignments().
-                                        listForProduct(productId, MY_CUSTOMER_ID);
+                        @Override
+                        public String handleResult(
+                                LicensingRequest<LicenseAssignmentList> request,
+                                LicenseAssignmentList value) {
 
-                        if (options.getPageSize() != null && 0 < options.getPageSize()) {
-                            r.setMaxResults(Long.valueOf(options.getPageSize()));
-                            paged = true;
+                            if (null != value.getItems()) {
+                                for (LicenseAssignment resource : value.getItems()) {
+                                    handler.handle(LicenseAssignmentsHandler.fromLicenseAssignment(resource));
+                                }
+                            }
+                            return value.getNextPageToken();
                         }
-                        r.setPageToken(options.getPagedResultsCookie());
-                        request = r;
-                    } else {
-                        Licensing.LicenseAssignments.ListForProductAndSku r =
-                                configuration.getLicensing().licenseAssignments().
-                                        listForProductAndSku(productId, skuId, MY_CUSTOMER_ID);
 
-                        if (options.getPageSize() != null && 0 < options.getPageSize()) {
-                            r.setMaxResults(Long.valueOf(options.getPageSize()));
-                            paged = true;
+                        @Override
+                        public String handleNotFound(final IOException e) {
+                            // product not available for the customer: nothing to return
+                            LOG.ok("No license assignments found: {0}", e.getMessage());
+                            return null;
                         }
-                        r.setPageToken(options.getPagedResultsCookie());
-                        request = r;
-                    }
-
-                    String nextPageToken = null;
-                    do {
-                        nextPageToken = execute(request,
-                                new RequestResultHandler<
-                                                LicensingRequest<
-                                                        LicenseAssignmentList>, LicenseAssignmentList, String>() {
+                    };
 
-                            @Override
-                            public String handleResult(
-                                    LicensingRequest<LicenseAssignmentList> request,
-                                    LicenseAssignmentList value) {
-
-                                if (null != value.getItems()) {
-                                    for (LicenseAssignment resource : value.getItems()) {
-                                        handler.handle(LicenseAssignmentsHandler.fromLicenseAssignment(resource));
-                                    }
-                                }
-                                return value.getNextPageToken();
+                    if (options.getPageSize() != null && 0 < options.getPageSize()) {
+                        // paged results cookie is <search index>:<page token>, searches being sent one after another
+                        int index = 0;
+                        String pageToken = null;
+                        String cookie = options.getPagedResultsCookie();
+                        if (StringUtil.isNotBlank(cookie)) {
+                            try {
+                                index = Integer.parseInt(cookie.substring(0, cookie.indexOf(':')));
+                                pageToken = StringUtil.isBlank(cookie.substring(cookie.indexOf(':') + 1))
+                                        ? null
+                                        : cookie.substring(cookie.indexOf(':') + 1);
+                            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                                throw new IllegalArgumentException("Invalid paged results cookie: " + cookie, e);
+                            }
+                            if (index < 0 || index >= requests.size()) {
+                                throw new IllegalArgumentException("Invalid paged results cookie: " + cookie);
                             }
-                        });
-                        if (request instanceof Licensing.LicenseAssignments.ListForProduct) {
-                            ((Licensing.LicenseAssignments.ListForProduct) request).setPageToken(nextPageToken);
-                        } else {
-                            ((Licensing.LicenseAssignments.ListForProductAndSku) request).setPageToken(nextPageToken);
                         }
-                    } while (!paged && StringUtil.isNotBlank(nextPageToken));
 
-                    if (paged && StringUtil.isNotBlank(nextPageToken)) {
-                        LOG.info("Paged Search was requested");
-                        ((SearchResultsHandler) handler).handleResult(new SearchResult(nextPageToken, 0));
+                        LicensingRequest<LicenseAssignmentList> request = requests.get(index);
+                        request.set("maxResults", Long.valueOf(options.getPageSize()));
+                        request.set(PagePrefetcher.PAGE_TOKEN, pageToken);
+                        String nextPageToken = executeList(request, pageHandler, true);
+
+                        String nextCookie = StringUtil.isNotBlank(nextPageToken)
+                                ? index + ":" + nextPageToken
+                                : index + 1 < requests.size() ? (index + 1) + ":" : null;
+                        if (null != nextCookie) {
+                            LOG.info("Paged Search was requested");
+                            ((SearchResultsHandler) handler).handleResult(new SearchResult(nextCookie, 0));
+                        }
+                    } else {
+                        executeShards(requests, pageHandler);
                     }
-
                 } catch (IOException e) {
                     LOG.warn(e, "Failed to initialize Groups#List");
                     throw ConnectorException.wrap(e);
@@ -1070,9 +1358,9 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                         return;
                     }
 
-                    String productId = name.group(0);
-                    String skuId = name.group(1);
-                    String userId = name.group(2);
+                    String productId = name.group(1);
+                    String skuId = name.group(2);
+                    String userId = name.group(3);
 
                     Licensing.LicenseAssignments.Get request =
                             configuration.getLicensing().licenseAssignments().get(productId, skuId, userId);
@@ -1108,6 +1396,172 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
 
     }
 
+    /**
+     * Finds the keys of the objects to read when the given filter is an OR of key EqualsFilters, as
+     * __UID__ = 'a' OR __NAME__ = 'b'.
+     *
+     * @param objectClass object class
+     * @param filter search filter
+     * @return keys, or null if the filter does not match the pattern above
+     */
+    protected Set<String> getKeysFromFilter(final ObjectClass objectClass, final Filter filter) {
+        if (!(filter instanceof OrFilter)
+                || !(ObjectClass.ACCOUNT.equals(objectClass)
+                || ObjectClass.GROUP.equals(objectClass)
+                || ORG_UNIT.equals(objectClass))) {
+
+            return null;
+        }
+
+        Set<String> keys = new LinkedHashSet<>();
+        return collectKeys(objectClass, filter, keys) ? keys : null;
+    }
+
+    private boolean collectKeys(final ObjectClass objectClass, final Filter filter, final Set<String> keys) {
+        if (filter instanceof OrFilter) {
+            for (Filter f : ((OrFilter) filter).getFilters()) {
+                if (!collectKeys(objectClass, f, keys)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if (filter instanceof EqualsFilter) {
+            Attribute filterAttr = ((EqualsFilter) filter).getAttribute();
+            boolean isKey = filterAttr instanceof Uid
+                    || ((ObjectClass.ACCOUNT.equals(objectClass) || ObjectClass.GROUP.equals(objectClass))
+                    && (filterAttr instanceof Name || filterAttr.getName().equalsIgnoreCase(ALIASES_ATTR)))
+                    || (ORG_UNIT.equals(objectClass) && filterAttr.getName().equalsIgnoreCase(ORG_UNIT_PATH_ATTR));
+            if (isKey && null != filterAttr.getValue() && filterAttr.getValue().size() == 1
+                    && filterAttr.getValue().get(0) instanceof String) {
+
+                keys.add((String) filterAttr.getValue().get(0));
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the objects with given keys, always via batch requests (see {@link #newBulkBatch}): each object found
+     * is passed to the handler as soon as its response part has been parsed.
+     *
+     * @param objectClass object class
+     * @param keys object keys
+     * @param handler results handler
+     * @param options operation options
+     * @param attributesToGet attributes to return
+     */
+    protected void readByKeys(
+            final ObjectClass objectClass,
+            final Set<String> keys,
+            final ResultsHandler handler,
+            final OperationOptions options,
+            final Set<String> attributesToGet) {
+
+        LOG.ok("Reading {0} {1} objects by key", keys.size(), objectClass.getObjectClassValue());
+
+        BatchExecutor batch = newBulkBatch(configuration.getDirectory());
+        try {
+            for (String key : keys) {
+                if (ObjectClass.ACCOUNT.equals(objectClass)) {
+                    batch.queue(getUser(key, options), readUser(handler, attributesToGet));
+                } else if (ObjectClass.GROUP.equals(objectClass)) {
+                    batch.queue(getGroup(key, options), readGroup(handler, attributesToGet));
+                } else {
+                    batch.queue(getOrgunit(key, options), readOrgunit(handler, attributesToGet));
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn(e, "Failed to initialize {0}#Get", objectClass.getObjectClassValue());
+            throw ConnectorException.wrap(e);
+        }
+
+        BatchExecutor.checkFailures(batch.execute());
+    }
+
+    protected Directory.Users.Get getUser(final String userKey, final OperationOptions options)
+            throws IOException {
+
+        Directory.Users.Get request = configuration.getDirectory().users().get(userKey);
+        request.setFields(getFields(options, ID_ATTR, ETAG_ATTR, PRIMARY_EMAIL_ATTR));
+        request.setProjection(configuration.getProjection());
+        return request;
+    }
+
+    protected RequestResultHandler<Directory.Users.Get, User, Boolean> readUser(
+            final ResultsHandler handler, final Set<String> attributesToGet) {
+
+        return new RequestResultHandler<Directory.Users.Get, User, Boolean>() {
+
+            @Override
+            public Boolean handleResult(final Directory.Users.Get request, final User user) {
+                return handler.handle(fromUser(user, attributesToGet, configuration.getDirectory().groups()));
+            }
+
+            @Override
+            public Boolean handleNotFound(final IOException e) {
+                // Do nothing if not found
+                return true;
+            }
+        };
+    }
+
+    protected Directory.Groups.Get getGroup(final String groupKey, final OperationOptions options)
+            throws IOException {
+
+        Directory.Groups.Get request = configuration.getDirectory().groups().get(groupKey);
+        request.setFields(getFields(options, ID_ATTR, ETAG_ATTR, EMAIL_ATTR));
+        return request;
+    }
+
+    protected RequestResultHandler<Directory.Groups.Get, Group, Boolean> readGroup(
+            final ResultsHandler handler, final Set<String> attributesToGet) {
+
+        return new RequestResultHandler<Directory.Groups.Get, Group, Boolean>() {
+
+            @Override
+            public Boolean handleResult(final Directory.Groups.Get request, final Group value) {
+                return handler.handle(fromGroup(value, attributesToGet, configuration.getDirectory().members()));
+            }
+
+            @Override
+            public Boolean handleNotFound(final IOException e) {
+                // Do nothing if not found
+                return true;
+            }
+        };
+    }
+
+    protected Directory.Orgunits.Get getOrgunit(final String orgUnitPath, final OperationOptions options)
+            throws IOException {
+
+        Directory.Orgunits.Get request = configuration.getDirectory().orgunits().
+                get(MY_CUSTOMER_ID, Arrays.asList(orgUnitPath));
+        request.setFields(getFields(options, ORG_UNIT_PATH_ATTR, ETAG_ATTR, NAME_ATTR));
+        return request;
+    }
+
+    protected RequestResultHandler<Directory.Orgunits.Get, OrgUnit, Boolean> readOrgunit(
+            final ResultsHandler handler, final Set<String> attributesToGet) {
+
+        return new RequestResultHandler<Directory.Orgunits.Get, OrgUnit, Boolean>() {
+
+            @Override
+            public Boolean handleResult(final Directory.Orgunits.Get request, final OrgUnit value) {
+                return handler.handle(OrgunitsHandler.fromOrgunit(value, attributesToGet));
+            }
+
+            @Override
+            public Boolean handleNotFound(final IOException e) {
+                // Do nothing if not found
+                return true;
+            }
+        };
+    }
+
     protected Attribute getKeyFromFilter(ObjectClass objectClass, Filter filter) {
         Attribute key = null;
         if (filter instanceof EqualsFilter) {
@@ -1301,6 +1755,8 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             final Set<Attribute> replaceAttributes,
             final OperationOptions options) {
 
+        startOperation();
+
         final AttributesAccessor attributesAccessor = new AttributesAccessor(replaceAttributes);
 
         Uid uidAfterUpdate = uid;
@@ -1321,12 +1777,14 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             Attribute groups = attributesAccessor.find(PredefinedAttributes.GROUPS_NAME);
             if (null != groups && null != groups.getValue()) {
                 final Directory.Members service = configuration.getDirectory().members();
+                final BatchExecutor batch = newBatch(configuration.getDirectory());
                 if (groups.getValue().isEmpty()) {
                     // Remove all membership
                     for (String groupKey : listGroups(configuration.getDirectory().groups(),
                             uidAfterUpdate.getUidValue())) {
 
-                        execute(GroupHandler.deleteMembers(service, groupKey, uidAfterUpdate.getUidValue()),
+                        executeOrQueue(batch,
+                                GroupHandler.deleteMembers(service, groupKey, uidAfterUpdate.getUidValue()),
                                 new RequestResultHandler<Directory.Members.Delete, Void, Object>() {
 
                             @Override
@@ -1366,7 +1824,8 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
 
                     // Add new Member object
                     for (Directory.Members.Insert insert : addGroups) {
-                        execute(insert, new RequestResultHandler<Directory.Members.Insert, Member, Object>() {
+                        executeOrQueue(batch, insert,
+                                new RequestResultHandler<Directory.Members.Insert, Member, Object>() {
 
                             @Override
                             public Object handleResult(Directory.Members.Insert request, Member value) {
@@ -1382,27 +1841,31 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                     }
 
                     // Delete existing Member object
-                    if (activeGroups.removeAll(keepGroups)) {
-                        for (String groupKey : activeGroups) {
-                            execute(GroupHandler.deleteMembers(service, groupKey, uidAfterUpdate.getUidValue()),
-                                    new RequestResultHandler<Directory.Members.Delete, Void, Object>() {
+                    activeGroups.removeAll(keepGroups);
+                    for (String groupKey : activeGroups) {
+                        executeOrQueue(batch,
+                                GroupHandler.deleteMembers(service, groupKey, uidAfterUpdate.getUidValue()),
+                                new RequestResultHandler<Directory.Members.Delete, Void, Object>() {
 
-                                @Override
-                                public Object handleResult(
-                                        Directory.Members.Delete request, Void value) {
-                                    return null;
-                                }
+                            @Override
+                            public Object handleResult(
+                                    Directory.Members.Delete request, Void value) {
+                                return null;
+                            }
 
-                                @Override
-                                public Object handleNotFound(IOException e) {
-                                    // It may be an indirect membership,
-                                    // not able to delete
-                                    return null;
-                                }
-                            });
-                        }
+                            @Override
+                            public Object handleNotFound(IOException e) {
+                                // It may be an indirect membership,
+                                // not able to delete
+                                return null;
+                            }
+                        });
                     }
                 }
+
+                if (null != batch) {
+                    BatchExecutor.checkFailures(batch.execute());
+                }
             }
             // GOOGLEAPPS-9
             // license management: if remove license param is true and __ENABLE__ is false perform delete license
@@ -1411,8 +1874,11 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                     && attributesAccessor.hasAttribute(OperationalAttributes.ENABLE_NAME)
                     && !attributesAccessor.findBoolean(OperationalAttributes.ENABLE_NAME)
                     && StringUtil.isNotBlank(attributesAccessor.findString(PRIMARY_EMAIL_ATTR))) {
+                final List<LicenseAssignment> licenses = new ArrayList<>();
+
+                // 1. retrieve user licenses, sending all lookups together if batching is enabled
+                BatchExecutor batch = newBatch(configuration.getLicensing());
                 for (String skuId : configuration.getSkuIds()) {
-                    // 1. retrieve user license
                     try {
                         // use email as key
                         Licensing.LicenseAssignments.Get request =
@@ -1420,24 +1886,15 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                                         configuration.getProductId(),
                                         skuId,
                                         attributesAccessor.findString(PRIMARY_EMAIL_ATTR));
-                        execute(request,
+                        executeOrQueue(batch, request,
                                 new RequestResultHandler<Licensing.LicenseAssignments.Get, LicenseAssignment, Boolean>() {
 
                             @Override
                             public Boolean handleResult(
                                     Licensing.LicenseAssignments.Get request,
                                     LicenseAssignment value) {
-                                try {
-                                    // 2. remove license
-                                    delete(LICENSE_ASSIGNMENT,
-                                            new Uid(GoogleAppsUtil.generateLicenseId(
-                                                    value.getProductId(),
-                                                    value.getSkuId(),
-                                                    value.getUserId())), null);
-                                } catch (Exception e) {
-                                    LOG.error(e, "Failed to delete license for user {0}", value.getUserId());
-                                    throw ConnectorException.wrap(e);
-                                }
+
+                                licenses.add(value);
                                 return true;
                             }
 
@@ -1452,6 +1909,27 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                                 attributesAccessor.findString(PRIMARY_EMAIL_ATTR));
                     }
                 }
+                if (null != batch) {
+                    BatchExecutor.checkFailures(batch.execute());
+                }
+
+                // 2. remove licenses found, the same way
+                batch = newBatch(configuration.getLicensing());
+                for (LicenseAssignment license : licenses) {
+                    Uid licenseUid = new Uid(GoogleAppsUtil.generateLicenseId(
+                            license.getProductId(), license.getSkuId(), license.getUserId()));
+                    try {
+                        executeOrQueue(batch,
+                                deleteRequest(LICENSE_ASSIGNMENT, licenseUid),
+                                deleteHandler(LICENSE_ASSIGNMENT, licenseUid));
+                    } catch (Exception e) {
+                        LOG.error(e, "Failed to delete license for user {0}", license.getUserId());
+                        throw ConnectorException.wrap(e);
+                    }
+                }
+                if (null != batch) {
+                    BatchExecutor.checkFailures(batch.execute());
+                }
             }
         } else if (ObjectClass.GROUP.equals(objectClass)) {
             final Directory.Groups.Patch patch = GroupHandler.updateGroup(
@@ -1469,10 +1947,11 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
             Attribute members = attributesAccessor.find(MEMBERS_ATTR);
             if (null != members && null != members.getValue()) {
                 final Directory.Members service = configuration.getDirectory().members();
+                final BatchExecutor batch = newBatch(configuration.getDirectory());
                 if (members.getValue().isEmpty()) {
                     // Remove all membership
                     for (Map<String, String> member : listMembers(service, uidAfterUpdate.getUidValue(), null)) {
-                        execute(GroupHandler.deleteMembers(
+                        executeOrQueue(batch, GroupHandler.deleteMembers(
                                 service, uidAfterUpdate.getUidValue(), member.get(EMAIL_ATTR)),
                                 new RequestResultHandler<Directory.Members.Delete, Void, Object>() {
 
@@ -1534,7 +2013,8 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
 
                     // Add new Member object
                     for (Directory.Members.Insert insert : addMembership) {
-                        execute(insert, new RequestResultHandler<Directory.Members.Insert, Member, Object>() {
+                        executeOrQueue(batch, insert,
+                                new RequestResultHandler<Directory.Members.Insert, Member, Object>() {
 
                             @Override
                             public Object handleResult(Directory.Members.Insert request, Member value) {
@@ -1551,7 +2031,8 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
 
                     // Update existing Member object
                     for (Directory.Members.Patch request : patchMembership) {
-                        execute(request, new RequestResultHandler<Directory.Members.Patch, Member, Object>() {
+                        executeOrQueue(batch, request,
+                                new RequestResultHandler<Directory.Members.Patch, Member, Object>() {
 
                             @Override
                             public Object handleResult(Directory.Members.Patch request, Member value) {
@@ -1563,7 +2044,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                     // Delete existing Member object
                     for (Map<String, String> am : activeMembership) {
                         if (!am.containsKey("keep")) {
-                            execute(GroupHandler.deleteMembers(
+                            executeOrQueue(batch, GroupHandler.deleteMembers(
                                     service, uidAfterUpdate.getUidValue(), am.get(EMAIL_ATTR)),
                                     new RequestResultHandler<Directory.Members.Delete, Void, Object>() {
 
@@ -1582,6 +2063,10 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                         }
                     }
                 }
+
+                if (null != batch) {
+                    BatchExecutor.checkFailures(batch.execute());
+                }
             }
         } else if (MEMBER.equals(objectClass)) {
             String role = attributesAccessor.findString(ROLE_ATTR);
@@ -1643,6 +2128,26 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
         return uidAfterUpdate;
     }
 
+    /**
+     * @param handler search results handler
+     * @param attributesToGet attributes to get
+     * @param attribute expensive attribute
+     * @return expansion of search results, run on the shared executor only if the given expensive attribute is
+     * requested and the executor is enabled
+     */
+    protected OrderedExpansion<ConnectorObject> newExpansion(
+            final ResultsHandler handler,
+            final Set<String> attributesToGet,
+            final String attribute) {
+
+        return new OrderedExpansion<>(
+                null != attributesToGet && attributesToGet.contains(attribute)
+                ? configuration.getClients().getExpansionExecutor()
+                : null,
+                handler::handle,
+                deadline);
+    }
+
     protected ConnectorObject fromUser(final User user, Set<String> attributesToGet, final Directory.Groups service) {
         ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
         if (null != user.getEtag()) {
@@ -1836,6 +2341,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
         try {
             Directory.Members.List request = service.list(groupKey);
             request.setRoles(StringUtil.isBlank(roles) ? "OWNER,MANAGER,MEMBER" : roles);
+            request.setFields("nextPageToken,members(" + EMAIL_ATTR + COMMA + ROLE_ATTR + ")");
 
             String nextPageToken;
             do {
@@ -1854,6 +2360,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                         return value.getNextPageToken();
                     }
                 });
+                request.setPageToken(nextPageToken);
             } while (StringUtil.isNotBlank(nextPageToken));
         } catch (IOException e) {
             LOG.warn(e, "Failed to initialize Members#Delete");
@@ -1867,7 +2374,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
         try {
             Directory.Groups.List request = service.list();
             request.setUserKey(userKey);
-            request.setFields("groups/email");
+            request.setFields("nextPageToken,groups/email");
             // 400 Bad Request if the Customer(my_customer or exact value) is set, only domain-userKey combination 
             // allowed. request.setCustomer(MY_CUSTOMER_ID);
             request.setDomain(configuration.getDomain());
@@ -1886,6 +2393,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                         return value.getNextPageToken();
                     }
                 });
+                request.setPageToken(nextPageToken);
             } while (StringUtil.isNotBlank(nextPageToken));
         } catch (IOException e) {
             LOG.warn(e, "Failed to initialize Members#Delete");
@@ -1894,12 +2402,154 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
         return result;
     }
 
+    /**
+     * Executes the given list request, handing each page to the handler; unless a single page is requested, all
+     * pages are read, by a thread of the shared prefetch executor with read-ahead if prefetch is enabled (in such
+     * case the default {@link RequestResultHandler#fetch} is used).
+     *
+     * @param <G> request type
+     * @param <T> page type
+     * @param request list request
+     * @param handler page handler, returning the next page token
+     * @param paged whether only the page identified by the current page token is requested
+     * @return next page token after the last page handled: always null unless paged, as all pages were read
+     */
+    protected <G extends AbstractGoogleJsonClientRequest<T>, T extends GenericJson> String executeList(
+            final G request, final RequestResultHandler<G, T, String> handler, final boolean paged) {
+
+        if (paged || configuration.getPrefetchDepth() <= 0) {
+            String nextPageToken;
+            do {
+                nextPageToken = execute(request, handler);
+                request.set(PagePrefetcher.PAGE_TOKEN, nextPageToken);
+            } while (!paged && StringUtil.isNotBlank(nextPageToken));
+            return nextPageToken;
+        }
+
+        // all pages are read: there is no next page token to return, as when not prefetching
+        executeShards(Collections.singletonList(request), handler);
+        return null;
+    }
+
+    /**
+     * Executes the given list requests concurrently, up to the configured shard concurrency, on the shared prefetch
+     * executor, reading all pages; pages are handed to the handler on the caller thread with the request which
+     * produced them, in arrival order. The default {@link RequestResultHandler#fetch} is used.
+     *
+     * @param <G> request type
+     * @param <T> page type
+     * @param requests list requests, for disjoint partitions of the same list
+     * @param handler page handler
+     */
+    protected <G extends AbstractGoogleJsonClientRequest<T>, T extends GenericJson> void executeShards(
+            final List<G> requests, final RequestResultHandler<G, T, String> handler) {
+
+        new PagePrefetcher<>(configuration.getClients().getPrefetchExecutor(), requests,
+                r -> execute(r, new RequestResultHandler<G, T, T>() {
+
+            @Override
+            public T handleResult(final G request, final T value) {
+                return value;
+            }
+
+            @Override
+            public T handleNotFound(final IOException e) {
+                handler.handleNotFound(e);
+                return null;
+            }
+
+            @Override
+            public T handleDuplicate(final IOException e) {
+                handler.handleDuplicate(e);
+                return null;
+            }
+
+            @Override
+            public T handleError(final Throwable e) {
+                handler.handleError(e);
+                return null;
+            }
+        }), requests.size() * Math.max(1, configuration.getPrefetchDepth()), configuration.getShardConcurrency()).
+                forEach(handler::handleResult);
+    }
+
+    /**
+     * Builds the searches for all license assignments: one for each configured SKU of the configured product,
+     * or one for the configured product if no SKU is configured, or one for each known product otherwise.
+     *
+     * @return license assignment searches
+     * @throws IOException if any search cannot be initialized
+     */
+    protected List<LicensingRequest<LicenseAssignmentList>> licenseAssignmentSearches() throws IOException {
+        Licensing.LicenseAssignments service = configuration.getLicensing().licenseAssignments();
+
+        List<LicensingRequest<LicenseAssignmentList>> searches = new ArrayList<>();
+        if (StringUtil.isBlank(configuration.getProductId())) {
+            for (String productId : LicenseAssignmentsHandler.PRODUCT_IDS) {
+                searches.add(service.listForProduct(productId, MY_CUSTOMER_ID));
+            }
+        } else if (null == configuration.getSkuIds() || configuration.getSkuIds().length == 0) {
+            searches.add(service.listForProduct(configuration.getProductId(), MY_CUSTOMER_ID));
+        } else {
+            for (String skuId : configuration.getSkuIds()) {
+                searches.add(service.listForProductAndSku(configuration.getProductId(), skuId, MY_CUSTOMER_ID));
+            }
+        }
+        return searches;
+    }
+
+    /**
+     * Splits the given search of all users into one search per domain of the customer, as users are partitioned
+     * by the domain of their primary email.
+     *
+     * @param request search of all users
+     * @return one search per domain
+     */
+    protected List<Directory.Users.List> userShards(final Directory.Users.List request) {
+        try {
+            return execute(configuration.getDirectory().domains().list(MY_CUSTOMER_ID).
+                    setFields("domains/domainName"),
+                    new RequestResultHandler<Directory.Domains.List, Domains2, List<Directory.Users.List>>() {
+
+                @Override
+                public List<Directory.Users.List> handleResult(
+                        final Directory.Domains.List domainsRequest, final Domains2 value) {
+
+                    List<Directory.Users.List> shards = new ArrayList<>();
+                    if (null != value.getDomains()) {
+                        for (Domains domain : value.getDomains()) {
+                            try {
+                                Directory.Users.List shard = configuration.getDirectory().users().list();
+                                shard.putAll(request);
+                                shard.setCustomer(null);
+                                shard.setDomain(domain.getDomainName());
+                                shards.add(shard);
+                            } catch (IOException e) {
+                                throw ConnectorException.wrap(e);
+                            }
+                        }
+                    }
+                    LOG.ok("User search split by domain: {0} shards", shards.size());
+                    return shards;
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn(e, "Failed to initialize Domains#List");
+            throw ConnectorException.wrap(e);
+        }
+    }
+
     protected <G extends AbstractGoogleJsonClientRequest<T>, T, R> R execute(
             G request, RequestResultHandler<G, T, R> handler) {
 
-        return execute(
-                Assertions.nullChecked(request, "Google Json ClientRequest"),
-                Assertions.nullChecked(handler, "handler"), -1);
+        Assertions.nullCheck(request, "Google Json ClientRequest");
+        Assertions.nullCheck(handler, "handler");
+
+        WriteCoalescer writeCoalescer = configuration.getClients().getWriteCoalescer();
+        if (null != writeCoalescer && WriteCoalescer.isWrite(request)) {
+            return writeCoalescer.execute(request, handler, deadline);
+        }
+        return execute(request, handler, -1);
     }
 
     protected <G extends AbstractGoogleJsonClientRequest<T>, T, R> R execute(
@@ -1914,7 +2564,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
                     throw ConnectorException.wrap(e);
                 }
             }
-            return handler.handleResult(request, request.execute());
+            return handler.handleResult(request, fetch(request, handler));
         } catch (GoogleJsonResponseException e) {
             GoogleJsonError details = e.getDetails();
             if (null != details && null != details.getErrors()) {
@@ -1957,7 +2607,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
 
             if (e.getStatusCode() == HttpStatusCodes.STATUS_CODE_FORBIDDEN) {
                 LOG.error("Forbidden request");
-                if (retry < 5) {
+                if (canRetry(retry + 1, e)) {
                     return execute(request, handler, ++retry);
                 } else {
                     handler.handleError(e);
@@ -1970,7 +2620,7 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
         } catch (IOException e) {
             // https://developers.google.com/admin-sdk/directory/v1/limits
             // rateLimitExceeded or userRateLimitExceeded
-            if (retry < 5) {
+            if (canRetry(retry + 1, e)) {
                 return execute(request, handler, ++retry);
             } else {
                 return handler.handleError(e);
@@ -1978,6 +2628,157 @@ public class GoogleAppsConnector implements Connector, CreateOp, DeleteOp, Schem
         }
     }
 
+    /**
+     * @param client API client
+     * @return batch executor for the given client, or null if batching is not enabled
+     */
+    protected BatchExecutor newBatch(final AbstractGoogleJsonClient client) {
+        return configuration.getBatchSize() > 0
+                ? new BatchExecutor(
+                        client,
+                        configuration.getClients().getRequestInitializer(),
+                        configuration.getBatchSize(),
+                        configuration.getBatchRetryBudget(),
+                        deadline,
+                        configuration.getClients().getIOStatistics())
+                : null;
+    }
+
+    /**
+     * Bulk operations are always batched, since they are known to send many independent requests at once: when
+     * batching is not enabled, batches are as large as allowed.
+     *
+     * @param client API client
+     * @return batch executor for the given client
+     */
+    protected BatchExecutor newBulkBatch(final AbstractGoogleJsonClient client) {
+        return new BatchExecutor(
+                client,
+                configuration.getClients().getRequestInitializer(),
+                configuration.getBatchSize() > 0 ? configuration.getBatchSize() : BatchExecutor.MAX_BATCH_SIZE,
+                configuration.getBatchRetryBudget(),
+                deadline,
+                configuration.getClients().getIOStatistics());
+    }
+
+    /**
+     * Reports an invalid value found among the attributes of an object already created.
+     *
+     * @param value invalid value
+     * @param uid Uid of the object created
+     * @param message what the value should be
+     * @return exception to throw
+     */
+    private static RetryableException invalidAttributeValue(final Object value, final Uid uid, final String message) {
+        // Delete object and Error or; the cause is already set by wrap, carrying the Uid
+        RetryableException e = RetryableException.wrap("Invalid attribute value: " + String.valueOf(value), uid);
+        e.addSuppressed(new InvalidAttributeValueException(message));
+        return e;
+    }
+
+    /**
+     * Sends the requests queued after the creation of the given object, if any; failures are reported via
+     * {@link RetryableException} carrying the Uid of the object created.
+     *
+     * @param batch batch executor, possibly null
+     * @param uid Uid of the object created
+     */
+    protected void executeFollowUps(final BatchExecutor batch, final Uid uid) {
+        if (null != batch) {
+            try {
+                BatchExecutor.checkFailures(batch.execute());
+            } catch (ConnectorException e) {
+                RetryableException re = RetryableException.wrap(e.getMessage(), uid);
+                re.addSuppressed(e);
+                throw re;
+            }
+        }
+    }
+
+    /**
+     * Queues the given request into the given batch, if available, otherwise executes it straight away.
+     *
+     * @param <G> request type
+     * @param <T> response type
+     * @param <R> result type
+     * @param batch batch executor, possibly null
+     * @param request request
+     * @param handler request handler
+     */
+    protected <G extends AbstractGoogleJsonClientRequest<T>, T, R> void executeOrQueue(
+            final BatchExecutor batch, final G request, final RequestResultHandler<G, T, R> handler) {
+
+        if (null == batch) {
+            execute(request, handler);
+        } else {
+            batch.queue(request, handler);
+        }
+    }
+
+    /**
+     * Executes the given request via the handler, collecting I/O statistics for its API method.
+     *
+     * @param <G> request type
+     * @param <T> response type
+     * @param <R> result type
+     * @param request request to execute
+     * @param handler request handler
+     * @return parsed response
+     * @throws IOException if the request fails
+     */
+    protected <G extends AbstractGoogleJsonClientRequest<T>, T, R> T fetch(
+            final G request, final RequestResultHandler<G, T, R> handler) throws IOException {
+
+        EndpointStatistics statistics = configuration.getClients().getIOStatistics().endpoint(request);
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T value = handler.fetch(request, statistics);
+            statistics.addResponse(value);
+            success = true;
+            return value;
+        } finally {
+            long requestBytes = 0;
+            if (null != request.getHttpContent()) {
+                try {
+                    requestBytes = Math.max(request.getHttpContent().getLength(), 0);
+                } catch (IOException e) {
+                    LOG.ok(e, "Could not compute request content length");
+                }
+            }
+            statistics.addRequest(requestBytes, System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Sets the deadline of the SPI operation being started, according to the configured operation timeout.
+     */
+    protected void startOperation() {
+        deadline = configuration.getOperationTimeout() > 0
+                ? System.currentTimeMillis() + configuration.getOperationTimeout()
+                : Long.MAX_VALUE;
+    }
+
+    /**
+     * Checks whether the given retry can be attempted: at most 5 retries are performed, provided that the
+     * (worst case) back-off sleep does not exceed the deadline of the current operation.
+     *
+     * @param retry retry number, starting from 0
+     * @param e error causing the retry
+     * @return whether the request can be attempted again
+     */
+    protected boolean canRetry(final int retry, final IOException e) {
+        if (retry > 5) {
+            return false;
+        }
+        long maxSleep = (long) (1000 * Math.pow(2, retry)) + 1000;
+        if (System.currentTimeMillis() + maxSleep > deadline) {
+            LOG.error("Not retrying request: the operation deadline would be exceeded");
+            throw new OperationTimeoutException("Operation deadline exceeded: " + e.getMessage(), e);
+        }
+        return true;
+    }
+
     protected RuntimeException get(GoogleJsonError.ErrorInfo errorInfo) {
         return null;
     }
@@ -0,0 +1,60 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.auth.Credentials;
+import com.google.auth.http.HttpCredentialsAdapter;
+import java.io.IOException;
+
+/**
+ * Authorizes each HTTP request with the given credentials and applies the configured timeouts.
+ */
+public class GoogleAppsRequestInitializer implements HttpRequestInitializer {
+
+    private final HttpCredentialsAdapter credentialsAdapter;
+
+    private final int connectTimeout;
+
+    private final int readTimeout;
+
+    public GoogleAppsRequestInitializer(
+            final Credentials credentials,
+            final int connectTimeout,
+            final int readTimeout) {
+
+        this.credentialsAdapter = new HttpCredentialsAdapter(credentials);
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public void initialize(final HttpRequest request) throws IOException {
+        credentialsAdapter.initialize(request);
+
+        request.setConnectTimeout(connectTimeout);
+        request.setReadTimeout(readTimeout);
+    }
+}
@@ -24,6 +24,8 @@
 package net.tirasa.connid.bundles.googleapps;
 
 import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
@@ -39,6 +41,7 @@ import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.ObjectClassInfo;
 import org.identityconnectors.framework.common.objects.ObjectClassInfoBuilder;
+import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.PredefinedAttributeInfos;
 import org.identityconnectors.framework.common.objects.PredefinedAttributes;
 import org.identityconnectors.framework.common.objects.Uid;
@@ -420,6 +423,37 @@ public class GroupHandler implements FilterVisitor<Void, Directory.Groups.List>
         }
     }
 
+    /**
+     * Builds the field mask for reading the Member resource: only what {@link #fromMember(String, Member)} needs
+     * to build the Uid (email, etag) and the requested attributes.
+     *
+     * @param options operation options, possibly specifying the attributes to get
+     * @return comma-separated list of fields
+     */
+    public static String getMemberFields(final OperationOptions options) {
+        Set<String> fields = new LinkedHashSet<>();
+        fields.add(GoogleAppsConnector.EMAIL_ATTR);
+        fields.add(GoogleAppsConnector.ETAG_ATTR);
+
+        if (null == options || null == options.getAttributesToGet()) {
+            fields.add(GoogleAppsConnector.ID_ATTR);
+            fields.add(GoogleAppsConnector.ROLE_ATTR);
+            fields.add(GoogleAppsConnector.TYPE_ATTR);
+        } else {
+            for (String attribute : options.getAttributesToGet()) {
+                if (AttributeUtil.namesEqual(GoogleAppsConnector.GROUP_KEY_ATTR, attribute)) {
+                    fields.add(GoogleAppsConnector.ID_ATTR);
+                } else if (AttributeUtil.namesEqual(GoogleAppsConnector.ROLE_ATTR, attribute)) {
+                    fields.add(GoogleAppsConnector.ROLE_ATTR);
+                } else if (AttributeUtil.namesEqual(GoogleAppsConnector.TYPE_ATTR, attribute)) {
+                    fields.add(GoogleAppsConnector.TYPE_ATTR);
+                }
+            }
+        }
+
+        return StringUtil.join(fields, GoogleAppsConnector.COMMA);
+    }
+
     public static ConnectorObject fromMember(String groupKey, Member content) {
         ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
         builder.setObjectClass(GoogleAppsConnector.MEMBER);
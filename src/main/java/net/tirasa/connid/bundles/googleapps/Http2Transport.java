@@ -0,0 +1,324 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityProducer;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.nio.support.classic.ContentInputStream;
+import org.apache.hc.core5.http.nio.support.classic.SharedInputBuffer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * {@link HttpTransport} sending all requests towards the same host as concurrent streams of a single HTTP/2
+ * connection, backed by the Apache HttpClient 5 asynchronous client: TLS connections negotiate HTTP/2 via ALPN,
+ * cleartext connections use HTTP/2 with prior knowledge.
+ * Response content is streamed to the caller while it is received, with flow control following the reader.
+ */
+public class Http2Transport extends HttpTransport {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CloseableHttpAsyncClient client;
+
+    /**
+     * Starts the given client, which will be closed on {@link #shutdown()}.
+     *
+     * @param client HTTP/2 asynchronous client
+     */
+    public Http2Transport(final CloseableHttpAsyncClient client) {
+        this.client = client;
+        this.client.start();
+    }
+
+    @Override
+    public boolean supportsMethod(final String method) {
+        return true;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(final String method, final String url) {
+        return new Request(method, url);
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        client.close(CloseMode.GRACEFUL);
+    }
+
+    private class Request extends LowLevelHttpRequest {
+
+        private final BasicHttpRequest request;
+
+        private Timeout responseTimeout;
+
+        Request(final String method, final String url) {
+            this.request = new BasicHttpRequest(method, URI.create(url));
+        }
+
+        @Override
+        public void addHeader(final String name, final String value) {
+            request.addHeader(name, value);
+        }
+
+        @Override
+        public void setTimeout(final int connectTimeout, final int readTimeout) {
+            // the connect timeout is set on the client, as connections are shared among requests
+            responseTimeout = Timeout.ofMilliseconds(readTimeout);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            AsyncEntityProducer entity = null;
+            StreamingContent content = getStreamingContent();
+            if (null != content) {
+                // Google API requests are small: buffer them to send with a known length
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                content.writeTo(out);
+                entity = new BasicAsyncEntityProducer(
+                        out.toByteArray(),
+                        null == getContentType() ? null : ContentType.parse(getContentType()));
+                if (null != getContentEncoding()) {
+                    request.addHeader(HttpHeaders.CONTENT_ENCODING, getContentEncoding());
+                }
+            }
+
+            HttpClientContext context = HttpClientContext.create();
+            if (null != responseTimeout) {
+                context.setRequestConfig(RequestConfig.custom().setResponseTimeout(responseTimeout).build());
+            }
+
+            StreamingConsumer consumer = new StreamingConsumer();
+            Future<HttpResponse> future = client.execute(
+                    new BasicRequestProducer(request, entity), consumer, context, null);
+            try {
+                return new Response(future.get(), consumer);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + request);
+            }
+        }
+    }
+
+    /**
+     * Completes as soon as the response head is received, then makes the content available through a buffer
+     * filled by the I/O reactor and drained by the caller.
+     */
+    private static class StreamingConsumer implements AsyncResponseConsumer<HttpResponse> {
+
+        private final SharedInputBuffer buffer = new SharedInputBuffer(BUFFER_SIZE);
+
+        private volatile EntityDetails entityDetails;
+
+        private volatile Exception failure;
+
+        @Override
+        public void consumeResponse(
+                final HttpResponse response,
+                final EntityDetails entityDetails,
+                final HttpContext context,
+                final FutureCallback<HttpResponse> resultCallback) {
+
+            this.entityDetails = entityDetails;
+            if (null == entityDetails) {
+                buffer.markEndStream();
+            }
+            resultCallback.completed(response);
+        }
+
+        @Override
+        public void informationResponse(final HttpResponse response, final HttpContext context) {
+            // nothing to do
+        }
+
+        @Override
+        public void updateCapacity(final CapacityChannel capacityChannel) throws IOException {
+            buffer.updateCapacity(capacityChannel);
+        }
+
+        @Override
+        public void consume(final ByteBuffer src) {
+            buffer.fill(src);
+        }
+
+        @Override
+        public void streamEnd(final List<? extends Header> trailers) {
+            buffer.markEndStream();
+        }
+
+        @Override
+        public void failed(final Exception cause) {
+            failure = cause;
+            buffer.abort();
+        }
+
+        @Override
+        public void releaseResources() {
+            // nothing to do
+        }
+
+        EntityDetails getEntityDetails() {
+            return entityDetails;
+        }
+
+        InputStream getContent() {
+            return new FilterInputStream(new ContentInputStream(buffer)) {
+
+                @Override
+                public int read() throws IOException {
+                    return checkFailure(super.read());
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    return checkFailure(super.read(b, off, len));
+                }
+            };
+        }
+
+        // an aborted buffer reports end of stream: surface the failure instead of truncated content
+        private int checkFailure(final int read) throws IOException {
+            if (read == -1 && null != failure) {
+                throw failure instanceof IOException
+                        ? (IOException) failure
+                        : new IOException(failure);
+            }
+            return read;
+        }
+    }
+
+    private static class Response extends LowLevelHttpResponse {
+
+        private final HttpResponse response;
+
+        private final StreamingConsumer consumer;
+
+        private final Header[] headers;
+
+        private InputStream content;
+
+        Response(final HttpResponse response, final StreamingConsumer consumer) {
+            this.response = response;
+            this.consumer = consumer;
+            this.headers = response.getHeaders();
+        }
+
+        @Override
+        public InputStream getContent() {
+            if (null == content && null != consumer.getEntityDetails()) {
+                content = consumer.getContent();
+            }
+            return content;
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return null == consumer.getEntityDetails() ? null : consumer.getEntityDetails().getContentEncoding();
+        }
+
+        @Override
+        public long getContentLength() {
+            return null == consumer.getEntityDetails() ? 0 : consumer.getEntityDetails().getContentLength();
+        }
+
+        @Override
+        public String getContentType() {
+            return null == consumer.getEntityDetails() ? null : consumer.getEntityDetails().getContentType();
+        }
+
+        @Override
+        public String getStatusLine() {
+            return (null == response.getVersion() ? "HTTP/2" : response.getVersion()) + " " + response.getCode()
+                    + (null == response.getReasonPhrase() ? "" : " " + response.getReasonPhrase());
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.getCode();
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            return response.getReasonPhrase();
+        }
+
+        @Override
+        public int getHeaderCount() {
+            return headers.length;
+        }
+
+        @Override
+        public String getHeaderName(final int index) {
+            return headers[index].getName();
+        }
+
+        @Override
+        public String getHeaderValue(final int index) {
+            return headers[index].getValue();
+        }
+
+        @Override
+        public void disconnect() throws IOException {
+            // streams are multiplexed on a shared connection: just drain the content so that the stream completes
+            InputStream stream = getContent();
+            if (null != stream) {
+                stream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConfigurationException;
+
+/**
+ * Builds the {@link HttpTransport} shared by the Directory and Licensing clients.
+ */
+public final class HttpTransportFactory {
+
+    private static final Log LOG = Log.getLog(HttpTransportFactory.class);
+
+    /**
+     * {@link com.google.api.client.http.javanet.NetHttpTransport}, relying on the JDK keep-alive cache.
+     */
+    public static final String NET = "net";
+
+    /**
+     * {@link ApacheHttpTransport} backed by a configurable pool of keep-alive connections.
+     */
+    public static final String APACHE = "apache";
+
+    /**
+     * {@link Http2Transport} multiplexing concurrent requests over a single connection per host.
+     */
+    public static final String HTTP2 = "http2";
+
+    private static final String COMPRESSED_BYTES = HttpTransportFactory.class.getName() + ".compressedBytes";
+
+    /**
+     * Builds the HTTP transport for the given configuration: besides {@link #NET}, {@link #APACHE} and
+     * {@link #HTTP2}, the fully qualified name of any {@link HttpTransport} implementation with public no-argument
+     * constructor is accepted.
+     *
+     * @param configuration connector configuration
+     * @param transferStatistics where to collect response byte counts, when supported by the transport
+     * @return HTTP transport
+     */
+    public static HttpTransport build(
+            final GoogleAppsConfiguration configuration,
+            final TransferStatistics transferStatistics) {
+
+        if (APACHE.equals(configuration.getHttpTransport())) {
+            return apache(configuration, transferStatistics);
+        }
+        if (HTTP2.equals(configuration.getHttpTransport())) {
+            return http2(configuration);
+        }
+
+        LOG.ok("Building HTTP transport {0}", configuration.getHttpTransport());
+        try {
+            return transportClass(configuration.getHttpTransport()).getConstructor().newInstance();
+        } catch (IllegalArgumentException | ReflectiveOperationException e) {
+            throw new ConfigurationException("Could not instantiate HTTP transport "
+                    + configuration.getHttpTransport(), e);
+        }
+    }
+
+    /**
+     * Resolves the given value to an {@link HttpTransport} implementation which can be instantiated.
+     *
+     * @param httpTransport fully qualified class name
+     * @return HTTP transport class
+     * @throws IllegalArgumentException if not found, not a public concrete {@link HttpTransport} or without public
+     * no-argument constructor
+     */
+    public static Class<? extends HttpTransport> transportClass(final String httpTransport) {
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(httpTransport, false, HttpTransportFactory.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new IllegalArgumentException("Class " + httpTransport + " not found", e);
+        }
+        if (!HttpTransport.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException(httpTransport + " is not an " + HttpTransport.class.getName());
+        }
+        if (!Modifier.isPublic(clazz.getModifiers()) || Modifier.isAbstract(clazz.getModifiers())) {
+            throw new IllegalArgumentException(httpTransport + " is not a public concrete class");
+        }
+        try {
+            clazz.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(httpTransport + " has no public no-argument constructor", e);
+        }
+        return clazz.asSubclass(HttpTransport.class);
+    }
+
+    private static HttpTransport apache(
+            final GoogleAppsConfiguration configuration,
+            final TransferStatistics transferStatistics) {
+
+        LOG.ok("Building pooled HTTP transport: maxConnections={0}, maxConnectionsPerRoute={1}, "
+                + "connectionIdleTimeout={2}s, keepAliveDuration={3}s",
+                configuration.getMaxConnections(), configuration.getMaxConnectionsPerRoute(),
+                configuration.getConnectionIdleTimeout(), configuration.getKeepAliveDuration());
+
+        final long keepAlive = TimeUnit.SECONDS.toMillis(configuration.getKeepAliveDuration());
+
+        HttpClientBuilder builder = ApacheHttpTransport.newDefaultHttpClientBuilder().
+                setMaxConnTotal(configuration.getMaxConnections()).
+                setMaxConnPerRoute(configuration.getMaxConnectionsPerRoute()).
+                setKeepAliveStrategy((response, context) -> {
+                    // honour the Keep-Alive header if sent by the server, otherwise use the configured value
+                    long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.
+                            getKeepAliveDuration(response, context);
+                    return duration > 0 ? duration : keepAlive;
+                }).
+                evictExpiredConnections();
+        if (configuration.getConnectionIdleTimeout() > 0) {
+            builder.evictIdleConnections(configuration.getConnectionIdleTimeout(), TimeUnit.SECONDS);
+        }
+        if (configuration.getGzipEncoding()) {
+            meter(builder, transferStatistics);
+        }
+
+        return new ApacheHttpTransport(builder.build());
+    }
+
+    private static HttpTransport http2(final GoogleAppsConfiguration configuration) {
+        LOG.ok("Building HTTP/2 transport: connectTimeout={0}ms, connectionIdleTimeout={1}s",
+                configuration.getConnectTimeout(), configuration.getConnectionIdleTimeout());
+
+        // retries and redirects are handled by the Google HTTP client
+        H2AsyncClientBuilder builder = HttpAsyncClients.customHttp2().
+                setDefaultConnectionConfig(ConnectionConfig.custom().
+                        setConnectTimeout(Timeout.ofMilliseconds(configuration.getConnectTimeout())).build()).
+                disableAutomaticRetries().
+                disableRedirectHandling().
+                disableCookieManagement();
+        if (configuration.getConnectionIdleTimeout() > 0) {
+            builder.evictIdleConnections(TimeValue.ofSeconds(configuration.getConnectionIdleTimeout()));
+        }
+
+        return new Http2Transport(builder.build());
+    }
+
+    /**
+     * Counts response bytes before (first interceptor) and after (last interceptor) the content decoding
+     * performed by HttpClient.
+     *
+     * @param builder HttpClient builder
+     * @param statistics where to collect compressed / uncompressed byte counts
+     */
+    private static void meter(final HttpClientBuilder builder, final TransferStatistics statistics) {
+        builder.addInterceptorFirst((HttpResponseInterceptor) (response, context) -> {
+            if (null != response.getEntity()) {
+                long[] compressed = new long[1];
+                context.setAttribute(COMPRESSED_BYTES, compressed);
+                response.setEntity(new CountingEntity(response.getEntity(), count -> compressed[0] = count));
+            }
+        });
+        builder.addInterceptorLast((HttpResponseInterceptor) (response, context) -> {
+            Object compressed = context.getAttribute(COMPRESSED_BYTES);
+            if (null != response.getEntity() && compressed instanceof long[]) {
+                response.setEntity(new CountingEntity(response.getEntity(), count -> {
+                    LOG.ok("Response received: {0} bytes, {1} bytes on the wire", count, ((long[]) compressed)[0]);
+                    statistics.add(((long[]) compressed)[0], count);
+                }));
+            }
+        });
+    }
+
+    private static class CountingEntity extends HttpEntityWrapper {
+
+        private final LongConsumer onClose;
+
+        CountingEntity(final HttpEntity entity, final LongConsumer onClose) {
+            super(entity);
+            this.onClose = onClose;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new MeteredInputStream(super.getContent(), onClose);
+        }
+    }
+
+    private HttpTransportFactory() {
+        // private constructor for static utility class
+    }
+}
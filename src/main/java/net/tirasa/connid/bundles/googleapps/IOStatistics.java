@@ -0,0 +1,122 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Per API method I/O counters of a {@link GoogleAppsClients} instance, exposed via JMX.
+ */
+public class IOStatistics implements IOStatisticsMXBean {
+
+    private static final Log LOG = Log.getLog(IOStatistics.class);
+
+    private static final String DOMAIN = "net.tirasa.connid.bundles.googleapps";
+
+    private final ConcurrentMap<String, EndpointStatistics> endpoints = new ConcurrentHashMap<>();
+
+    private final TransferStatistics transferStatistics;
+
+    private ObjectName objectName;
+
+    public IOStatistics(final TransferStatistics transferStatistics) {
+        this.transferStatistics = transferStatistics;
+    }
+
+    /**
+     * Gives the API method name of the given request, as users.list for {@code Directory.Users.List}.
+     *
+     * @param request request
+     * @return API method name
+     */
+    public static String method(final AbstractGoogleClientRequest<?> request) {
+        StringBuilder method = new StringBuilder();
+        for (Class<?> clazz = request.getClass();
+                null != clazz && null != clazz.getEnclosingClass();
+                clazz = clazz.getEnclosingClass()) {
+
+            String name = clazz.getSimpleName();
+            method.insert(0, Character.toLowerCase(name.charAt(0)) + name.substring(1)).insert(0, '.');
+        }
+        return method.length() == 0 ? request.getClass().getSimpleName() : method.substring(1);
+    }
+
+    public EndpointStatistics endpoint(final AbstractGoogleClientRequest<?> request) {
+        return endpoint(method(request));
+    }
+
+    public EndpointStatistics endpoint(final String method) {
+        return endpoints.computeIfAbsent(method, EndpointStatistics::new);
+    }
+
+    @Override
+    public Map<String, EndpointStatistics> getEndpoints() {
+        return Collections.unmodifiableMap(new TreeMap<>(endpoints));
+    }
+
+    @Override
+    public long getCompressedBytes() {
+        return transferStatistics.getCompressedBytes();
+    }
+
+    @Override
+    public long getUncompressedBytes() {
+        return transferStatistics.getUncompressedBytes();
+    }
+
+    @Override
+    public void reset() {
+        endpoints.clear();
+    }
+
+    public synchronized void register(final String name) {
+        try {
+            objectName = new ObjectName(DOMAIN + ":type=IOStatistics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            LOG.warn(e, "Could not register I/O statistics MBean {0}", name);
+            objectName = null;
+        }
+    }
+
+    public synchronized void unregister() {
+        if (null != objectName) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOG.warn(e, "Could not unregister I/O statistics MBean {0}", objectName);
+            }
+            objectName = null;
+        }
+    }
+}
@@ -24,8 +24,12 @@
 package net.tirasa.connid.bundles.googleapps;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
@@ -130,16 +134,32 @@ public class LicenseAssignmentsHandler {
         }
     }
 
-    public static final Pattern LICENSE_NAME_PATTERN =
-            Pattern.compile(
-                    "(?i)(Google-Coordinate|Google-Drive-storage|Google-Vault|Google-Apps)"
-                    + "\\/sku\\/(Google-Coordinate|Google-Drive-storage-20GB|"
-                    + "Google-Drive-storage-50GB|Google-Drive-storage-200GB|"
-                    + "Google-Drive-storage-400GB|Google-Drive-storage-1TB|"
-                    + "Google-Drive-storage-2TB|Google-Drive-storage-4TB|"
-                    + "Google-Drive-storage-8TB|Google-Drive-storage-16TB|Google-Vault|Google-Vault-Former-Employee|"
-                    + "Google-Apps-For-Business|Google-Apps-Unlimited|Google-Apps-Lite|Google-Apps-For-Postini)"
-                    + "\\/user\\/(.+)");
+    /**
+     * Products matched by {@link #LICENSE_NAME_PATTERN}, searched when no product id is configured.
+     */
+    public static final List<String> PRODUCT_IDS = Collections.unmodifiableList(Arrays.asList(
+            "Google-Coordinate", "Google-Drive-storage", "Google-Vault", "Google-Apps"));
+
+    /**
+     * SKUs of {@link #PRODUCT_IDS} matched by {@link #LICENSE_NAME_PATTERN}.
+     */
+    public static final List<String> SKU_IDS = Collections.unmodifiableList(Arrays.asList(
+            "Google-Coordinate",
+            "Google-Drive-storage-20GB", "Google-Drive-storage-50GB", "Google-Drive-storage-200GB",
+            "Google-Drive-storage-400GB", "Google-Drive-storage-1TB", "Google-Drive-storage-2TB",
+            "Google-Drive-storage-4TB", "Google-Drive-storage-8TB", "Google-Drive-storage-16TB",
+            "Google-Vault", "Google-Vault-Former-Employee",
+            "Google-Apps-For-Business", "Google-Apps-Unlimited", "Google-Apps-Lite", "Google-Apps-For-Postini"));
+
+    /**
+     * Matches license assignment ids: product id, SKU id and user id are groups 1, 2 and 3.
+     */
+    public static final Pattern LICENSE_NAME_PATTERN = Pattern.compile(
+            "(?i)(" + alternation(PRODUCT_IDS) + ")\\/sku\\/(" + alternation(SKU_IDS) + ")\\/user\\/(.+)");
+
+    private static String alternation(final List<String> values) {
+        return values.stream().map(Pattern::quote).collect(Collectors.joining("|"));
+    }
 
     public static Licensing.LicenseAssignments.Patch updateLicenseAssignment(
             Licensing.LicenseAssignments service, String groupKey, AttributesAccessor attributes) {
@@ -151,9 +171,9 @@ public class LicenseAssignmentsHandler {
             throw new UnknownUidException("Unrecognised id");
         }
 
-        String productId = name.group(0);
-        String oldSkuId = name.group(1);
-        String userId = name.group(2);
+        String productId = name.group(1);
+        String oldSkuId = name.group(2);
+        String userId = name.group(3);
 
         Attribute skuId = attributes.find(GoogleAppsConnector.SKU_ID_ATTR);
         if (null != skuId) {
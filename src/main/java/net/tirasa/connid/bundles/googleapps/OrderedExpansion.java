@@ -0,0 +1,129 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+
+/**
+ * Runs expensive expansions of search results (as {@code __GROUPS__} or {@code __MEMBERS__}) on a bounded
+ * executor, while handing results over to the consumer on the caller thread and in submission order.
+ *
+ * @param <T> result type
+ */
+public class OrderedExpansion<T> {
+
+    private final Executor executor;
+
+    private final Consumer<T> consumer;
+
+    private final long deadline;
+
+    private final Deque<FutureTask<T>> pending = new ArrayDeque<>();
+
+    /**
+     * @param executor executor for expansions; if null, each expansion is run on the caller thread when submitted
+     * @param consumer invoked on the caller thread with each result, in submission order
+     * @param deadline time (epoch millis) after which the caller stops waiting for expansions
+     */
+    public OrderedExpansion(final Executor executor, final Consumer<T> consumer, final long deadline) {
+        this.executor = executor;
+        this.consumer = consumer;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Submits the given expansion, then hands over all results available at the head of the queue.
+     *
+     * @param task expansion
+     */
+    public void submit(final Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        pending.add(future);
+        if (null == executor) {
+            future.run();
+        } else {
+            try {
+                executor.execute(future);
+            } catch (RejectedExecutionException e) {
+                future.run();
+            }
+        }
+        drain(false);
+    }
+
+    /**
+     * Waits for all submitted expansions and hands over their results.
+     */
+    public void flush() {
+        drain(true);
+    }
+
+    private void drain(final boolean wait) {
+        try {
+            while (!pending.isEmpty() && (wait || pending.peek().isDone())) {
+                consumer.accept(deadline == Long.MAX_VALUE
+                        ? pending.peek().get()
+                        : pending.peek().get(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+                pending.poll();
+            }
+        } catch (ExecutionException e) {
+            cancel();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw ConnectorException.wrap(e.getCause());
+        } catch (TimeoutException e) {
+            cancel();
+            throw new OperationTimeoutException("Operation deadline exceeded while waiting for expansion", e);
+        } catch (CancellationException e) {
+            // the executor was shut down meanwhile
+            cancel();
+            throw new ConnectorException("Expansion was cancelled", e);
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw ConnectorException.wrap(e);
+        } catch (RuntimeException e) {
+            cancel();
+            throw e;
+        }
+    }
+
+    private void cancel() {
+        pending.forEach(future -> future.cancel(true));
+        pending.clear();
+    }
+}
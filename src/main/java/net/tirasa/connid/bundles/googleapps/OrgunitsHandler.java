@@ -97,7 +97,13 @@ public class OrgunitsHandler {
 
     public static Directory.Orgunits.Insert createOrgunit(Directory.Orgunits service, AttributesAccessor attributes) {
         OrgUnit resource = new OrgUnit();
-        resource.setParentOrgUnitPath(getParentOrgUnitPath(attributes));
+        String parentOrgUnitPath = getParentOrgUnitPath(attributes);
+        if (null == parentOrgUnitPath) {
+            throw new InvalidAttributeValueException(
+                    "Missing required attribute 'parentOrgUnitPath'. "
+                    + "The organization unit's parent path. Required when creating an orgunit.");
+        }
+        resource.setParentOrgUnitPath(parentOrgUnitPath);
         resource.setName(getOrgUnitNameFromPath(attributes.getName()));
 
         // Optional
@@ -204,18 +210,18 @@ public class OrgunitsHandler {
         // /corp/sales is the parent path for /corp/sales/sales_support
         // organization unit.
         String parentOrgUnitPath = attributes.findString(GoogleAppsConnector.PARENT_ORG_UNIT_PATH_ATTR);
-        if (StringUtil.isNotBlank(parentOrgUnitPath)) {
-            if (parentOrgUnitPath.charAt(0) != '/') {
-                parentOrgUnitPath = "/" + parentOrgUnitPath;
-            }
+        if (StringUtil.isBlank(parentOrgUnitPath)) {
+            return null;
         }
-
-        if (parentOrgUnitPath.isEmpty()) {
-            throw new InvalidAttributeValueException(
-                    "Missing required attribute 'parentOrgUnitPath'. "
-                    + "The organization unit's parent path. Required when creating an orgunit.");
+        if (parentOrgUnitPath.charAt(0) != '/') {
+            parentOrgUnitPath = "/" + parentOrgUnitPath;
+        }
+        // a trailing separator, as in /corp/sales/, is not part of the path
+        int end = parentOrgUnitPath.length();
+        while (end > 1 && parentOrgUnitPath.charAt(end - 1) == '/') {
+            end--;
         }
-        return parentOrgUnitPath;
+        return parentOrgUnitPath.substring(0, end);
     }
 
     private static String getOrgUnitNameFromPath(Name name) {
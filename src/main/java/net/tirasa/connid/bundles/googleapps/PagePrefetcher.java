@@ -0,0 +1,314 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.json.GenericJson;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Fetches all pages of a list request on a separate thread, up to the given number of pages ahead of the
+ * consumer, so that network time overlaps with the time spent handling the pages already received; several
+ * requests (as disjoint partitions of the same list) can be fetched concurrently, up to the given concurrency,
+ * with their pages merged in arrival order.
+ * Each page is fetched by its own task on the given executor, submitted only when the consumer is within depth:
+ * executor threads are never held waiting for the consumer, so that a slow consumer does not starve other
+ * searches sharing the same executor.
+ *
+ * @param <G> request type
+ * @param <T> page type
+ */
+public class PagePrefetcher<G extends AbstractGoogleJsonClientRequest<T>, T extends GenericJson> {
+
+    private static final Log LOG = Log.getLog(PagePrefetcher.class);
+
+    public static final String PAGE_TOKEN = "pageToken";
+
+    public static final String NEXT_PAGE_TOKEN = "nextPageToken";
+
+    private static final Object END = new Object();
+
+    private final Executor executor;
+
+    private final List<G> requests;
+
+    private final Function<G, T> fetcher;
+
+    private final int concurrency;
+
+    /**
+     * Pages, each with the request which produced it, followed by either {@link #END} or an exception for each
+     * request; only pages count towards depth.
+     */
+    private final BlockingQueue<Object> pages = new LinkedBlockingQueue<>();
+
+    /**
+     * Number of pages which can be fetched ahead of the consumer, not yet taken by a fetch; guarded by this.
+     */
+    private int permits;
+
+    /**
+     * Number of fetches submitted and not completed yet, up to {@link #concurrency}; guarded by this.
+     */
+    private int running = 0;
+
+    /**
+     * Requests with more pages to fetch, waiting for a permit or for a running fetch to complete, in turn;
+     * guarded by this.
+     */
+    private final Queue<G> waiting = new ArrayDeque<>();
+
+    /**
+     * Fetch tasks submitted and not completed yet; guarded by this.
+     */
+    private final Set<FutureTask<Void>> fetches = new HashSet<>();
+
+    /**
+     * Set when the consumer returns, to stop submitting fetches; guarded by this.
+     */
+    private boolean closed = false;
+
+    /**
+     * @param executor executor running the fetch
+     * @param request list request, owned by the fetching task until all pages are consumed
+     * @param fetcher executes the request for the current page token; null to stop
+     * @param depth maximum number of pages fetched and not consumed yet
+     */
+    public PagePrefetcher(
+            final Executor executor,
+            final G request,
+            final Function<G, T> fetcher,
+            final int depth) {
+
+        this(executor, Collections.singletonList(request), fetcher, depth);
+    }
+
+    /**
+     * @param executor executor running the fetches, bounding how many requests are fetched concurrently
+     * @param requests list requests, each owned by its fetching task until all pages are consumed
+     * @param fetcher executes a request for its current page token; null to stop
+     * @param depth maximum number of pages fetched and not consumed yet, for all requests
+     */
+    public PagePrefetcher(
+            final Executor executor,
+            final List<G> requests,
+            final Function<G, T> fetcher,
+            final int depth) {
+
+        this(executor, requests, fetcher, depth, requests.size());
+    }
+
+    /**
+     * @param executor executor running the fetches, shared with other searches
+     * @param requests list requests, each owned by its fetching task until all pages are consumed
+     * @param fetcher executes a request for its current page token; null to stop
+     * @param depth maximum number of pages fetched and not consumed yet, for all requests
+     * @param concurrency maximum number of requests fetched at the same time, so that a search with many
+     * partitions does not take all threads of the executor
+     */
+    public PagePrefetcher(
+            final Executor executor,
+            final List<G> requests,
+            final Function<G, T> fetcher,
+            final int depth,
+            final int concurrency) {
+
+        this.executor = executor;
+        this.requests = requests;
+        this.fetcher = fetcher;
+        this.permits = Math.max(1, depth);
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Submits fetches for the waiting requests, in turn, as long as permits and concurrency allow.
+     */
+    private synchronized void dispatch() {
+        while (permits > 0 && running < concurrency && !waiting.isEmpty()) {
+            permits--;
+            running++;
+            submit(waiting.poll());
+        }
+    }
+
+    /**
+     * Fetches the next page of the given request as soon as possible.
+     *
+     * @param request list request
+     */
+    private synchronized void schedule(final G request) {
+        waiting.add(request);
+        dispatch();
+    }
+
+    /**
+     * Hands back the permit of a page taken by the consumer.
+     */
+    private synchronized void release() {
+        permits++;
+        dispatch();
+    }
+
+    /**
+     * Accounts for a fetch completed without error.
+     *
+     * @param next the request, if it has more pages to fetch
+     * @param fetched whether a page was fetched, holding its permit until consumed
+     */
+    private synchronized void completed(final G next, final boolean fetched) {
+        running--;
+        if (!fetched) {
+            permits++;
+        }
+        if (null != next) {
+            waiting.add(next);
+        }
+        dispatch();
+    }
+
+    // called with the lock held
+    private void submit(final G request) {
+        if (closed) {
+            return;
+        }
+
+        FutureTask<Void> fetch = new FutureTask<Void>(() -> fetch(request), null) {
+
+            @Override
+            protected void done() {
+                synchronized (PagePrefetcher.this) {
+                    fetches.remove(this);
+                }
+                if (isCancelled()) {
+                    // not to leave the consumer waiting for a fetch which never started
+                    pages.add(new ConnectorException("Prefetch of " + IOStatistics.method(request) + " cancelled"));
+                }
+            }
+        };
+        fetches.add(fetch);
+        try {
+            executor.execute(fetch);
+        } catch (RejectedExecutionException e) {
+            fetches.remove(fetch);
+            pages.add(new ConnectorException("Prefetch executor was shut down", e));
+        }
+    }
+
+    private void fetch(final G request) {
+        Object last = END;
+        try {
+            T page = fetcher.apply(request);
+            if (Thread.interrupted()) {
+                // cancelled while fetching: the page, if any, might be incomplete
+                throw new InterruptedException();
+            }
+            if (null == page) {
+                completed(null, false);
+            } else {
+                String nextPageToken = (String) page.get(NEXT_PAGE_TOKEN);
+                request.set(PAGE_TOKEN, nextPageToken);
+                pages.add(new AbstractMap.SimpleImmutableEntry<>(request, page));
+                if (StringUtil.isNotBlank(nextPageToken)) {
+                    completed(request, true);
+                    return;
+                }
+                completed(null, true);
+            }
+        } catch (InterruptedException e) {
+            LOG.ok("Prefetch of {0} interrupted", IOStatistics.method(request));
+            last = new ConnectorException("Prefetch of " + IOStatistics.method(request) + " interrupted", e);
+        } catch (RuntimeException e) {
+            last = e;
+        }
+        pages.add(last);
+    }
+
+    /**
+     * Hands all pages to the given consumer on the caller thread, in order for each request; errors raised while
+     * fetching are rethrown here. Fetches not completed when this method returns are cancelled.
+     *
+     * @param consumer page consumer
+     */
+    public void forEach(final Consumer<T> consumer) {
+        forEach((request, page) -> consumer.accept(page));
+    }
+
+    /**
+     * Hands all pages, each with the request which produced it, to the given consumer on the caller thread, in
+     * order for each request; errors raised while fetching are rethrown here. Fetches not completed when this
+     * method returns are cancelled.
+     *
+     * @param consumer page consumer
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(final BiConsumer<G, T> consumer) {
+        try {
+            requests.forEach(this::schedule);
+
+            int completed = 0;
+            while (completed < requests.size()) {
+                Object page = pages.take();
+                if (page == END) {
+                    completed++;
+                } else if (page instanceof RuntimeException) {
+                    throw (RuntimeException) page;
+                } else {
+                    release();
+                    Map.Entry<G, T> entry = (Map.Entry<G, T>) page;
+                    consumer.accept(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ConnectorException.wrap(e);
+        } finally {
+            // no effect if all pages were fetched, otherwise stops the fetching tasks
+            List<FutureTask<Void>> running;
+            synchronized (this) {
+                closed = true;
+                running = new ArrayList<>(fetches);
+            }
+            running.forEach(fetch -> fetch.cancel(true));
+        }
+    }
+}
@@ -24,13 +24,36 @@
 package net.tirasa.connid.bundles.googleapps;
 
 import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpResponse;
 import java.io.IOException;
+import java.io.InputStream;
 import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 
 public abstract class RequestResultHandler<G extends AbstractGoogleJsonClientRequest<T>, T, R> {
 
+    /**
+     * Executes the given request; override to change the way the response is read.
+     *
+     * @param request request to execute
+     * @param statistics where to report the response bytes read
+     * @return parsed response
+     * @throws IOException if the request fails
+     */
+    public T fetch(final G request, final EndpointStatistics statistics) throws IOException {
+        HttpResponse response = request.executeUnparsed();
+        InputStream content = response.getContent();
+        if (null == content || Void.class.equals(request.getResponseClass())) {
+            response.ignore();
+            return null;
+        }
+        return request.getAbstractGoogleClient().getObjectParser().parseAndClose(
+                new MeteredInputStream(content, statistics::addResponseBytes),
+                response.getContentCharset(),
+                request.getResponseClass());
+    }
+
     public abstract R handleResult(G request, T value);
 
     public R handleNotFound(final IOException e) {
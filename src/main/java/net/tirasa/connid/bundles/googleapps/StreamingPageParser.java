@@ -0,0 +1,129 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+import com.google.api.client.util.Types;
+import java.io.IOException;
+import java.util.function.Consumer;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Decodes list pages as a stream, handing each item to a consumer as soon as it has been parsed instead of
+ * materializing the whole page first.
+ */
+public final class StreamingPageParser {
+
+    /**
+     * Executes the given list request and streams the items found in the given field to the consumer.
+     *
+     * @param <T> page type
+     * @param <I> item type
+     * @param request list request
+     * @param itemsField name of the field holding the page items (as 'users' or 'members')
+     * @param itemClass item type
+     * @param consumer invoked for each item, in page order
+     * @param statistics where to report response bytes and entities read
+     * @return page with all scalar fields (as nextPageToken) but without items
+     * @throws IOException if the request fails, or if the response cannot be read before any item was consumed
+     */
+    public static <T extends GenericJson, I> T parse(
+            final AbstractGoogleJsonClientRequest<T> request,
+            final String itemsField,
+            final Class<I> itemClass,
+            final Consumer<I> consumer,
+            final EndpointStatistics statistics) throws IOException {
+
+        T page = Types.newInstance(request.getResponseClass());
+
+        HttpResponse response = request.executeUnparsed();
+        int consumed = 0;
+        try {
+            JsonParser parser = request.getAbstractGoogleClient().getJsonFactory().
+                    createJsonParser(
+                            new MeteredInputStream(response.getContent(), statistics::addResponseBytes),
+                            response.getContentCharset());
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new IOException("Unexpected content for " + request.getResponseClass().getSimpleName());
+                }
+                JsonToken field;
+                while ((field = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    JsonToken token = parser.nextToken();
+                    if (itemsField.equals(name) && token == JsonToken.START_ARRAY) {
+                        JsonToken item;
+                        while ((item = parser.nextToken()) == JsonToken.START_OBJECT) {
+                            consumer.accept(parseItem(parser, itemClass));
+                            consumed++;
+                        }
+                        checkToken(item, JsonToken.END_ARRAY);
+                    } else if (token == JsonToken.VALUE_STRING) {
+                        page.set(name, parser.getText());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                checkToken(field, JsonToken.END_OBJECT);
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            if (consumed > 0) {
+                // items already handed over: a retry would deliver them twice
+                throw ConnectorException.wrap(e);
+            }
+            throw e;
+        } finally {
+            statistics.addEntities(consumed);
+            // releases the connection for reuse, unlike disconnect()
+            response.ignore();
+        }
+
+        return page;
+    }
+
+    private static <I> I parseItem(final JsonParser parser, final Class<I> itemClass) throws IOException {
+        try {
+            return parser.parse(itemClass);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            // the parser reports content ending within an item this way
+            throw new IOException("Could not parse " + itemClass.getSimpleName(), e);
+        }
+    }
+
+    private static void checkToken(final JsonToken actual, final JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Unexpected content: expected " + expected + ", found " + actual);
+        }
+    }
+
+    private StreamingPageParser() {
+        // private constructor for static utility class
+    }
+}
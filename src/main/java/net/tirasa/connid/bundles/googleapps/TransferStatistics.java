@@ -0,0 +1,66 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative count of response bytes as received on the wire (compressed) and as handed to the JSON parser
+ * (uncompressed).
+ */
+public class TransferStatistics {
+
+    private final AtomicLong responses = new AtomicLong();
+
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+
+    public void add(final long compressed, final long uncompressed) {
+        responses.incrementAndGet();
+        compressedBytes.addAndGet(compressed);
+        uncompressedBytes.addAndGet(uncompressed);
+    }
+
+    public long getResponses() {
+        return responses.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "TransferStatistics{"
+                + "responses=" + responses
+                + ", compressedBytes=" + compressedBytes
+                + ", uncompressedBytes=" + uncompressedBytes
+                + '}';
+    }
+}
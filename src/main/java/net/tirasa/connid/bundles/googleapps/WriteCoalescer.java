@@ -0,0 +1,281 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2016 ConnId.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClient;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpRequestInitializer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+
+/**
+ * Gathers write requests submitted by concurrent callers to the same API for a short time window, then sends
+ * them as a single batch via {@link BatchExecutor}; each caller blocks until the outcome of its own request is
+ * available, as with {@link GoogleAppsConnector#execute}.
+ * No thread is owned by this class: the first caller of each group waits for the window to elapse (or for the
+ * batch size to be reached), then sends the batch on behalf of all the callers in the group.
+ */
+public class WriteCoalescer {
+
+    private static final Log LOG = Log.getLog(WriteCoalescer.class);
+
+    private static final class Pending<G extends AbstractGoogleJsonClientRequest<T>, T, R> {
+
+        private final G request;
+
+        private final RequestResultHandler<G, T, R> handler;
+
+        private final long deadline;
+
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+
+        private BatchExecutor.BatchItem<R> item;
+
+        Pending(final G request, final RequestResultHandler<G, T, R> handler, final long deadline) {
+            this.request = request;
+            this.handler = handler;
+            this.deadline = deadline;
+        }
+
+        void queue(final BatchExecutor batch) {
+            item = batch.queue(request, handler);
+        }
+
+        void complete() {
+            if (null == item || !item.isDone()) {
+                future.completeExceptionally(new ConnectorException("No outcome received for batched request"));
+            } else if (item.isFailed()) {
+                future.completeExceptionally(item.getError());
+            } else {
+                future.complete(item.getResult());
+            }
+        }
+    }
+
+    /**
+     * Requests gathered for the same API client, sent by the caller which submitted the first one.
+     */
+    private static final class Group {
+
+        private final AbstractGoogleJsonClient client;
+
+        private final List<Pending<?, ?, ?>> entries = new ArrayList<>();
+
+        /**
+         * Whether no more requests can be added, either because the batch size was reached or the window elapsed.
+         */
+        private boolean ready = false;
+
+        /**
+         * Whether the entries were failed by {@link WriteCoalescer#close()}, before being sent.
+         */
+        private boolean failed = false;
+
+        Group(final AbstractGoogleJsonClient client) {
+            this.client = client;
+        }
+    }
+
+    /**
+     * @param request request
+     * @return whether the given request modifies data and can be sent in a batch
+     */
+    public static boolean isWrite(final AbstractGoogleJsonClientRequest<?> request) {
+        return !HttpMethods.GET.equals(request.getRequestMethod()) && null == request.getMediaHttpUploader();
+    }
+
+    private final HttpRequestInitializer requestInitializer;
+
+    private final IOStatistics ioStatistics;
+
+    private final long window;
+
+    private final int batchSize;
+
+    private final int retryBudget;
+
+    private final Map<AbstractGoogleJsonClient, Group> groups = new HashMap<>();
+
+    private boolean closed = false;
+
+    /**
+     * @param requestInitializer HTTP request initializer for batch requests
+     * @param ioStatistics where to report requests and responses
+     * @param window milliseconds to wait for further requests after the first one, before sending the batch
+     * @param batchSize maximum number of requests per batch: the batch is sent as soon as this size is reached
+     * @param retryBudget maximum number of part retries for each batch
+     */
+    public WriteCoalescer(
+            final HttpRequestInitializer requestInitializer,
+            final IOStatistics ioStatistics,
+            final long window,
+            final int batchSize,
+            final int retryBudget) {
+
+        this.requestInitializer = requestInitializer;
+        this.ioStatistics = ioStatistics;
+        this.window = window;
+        this.batchSize = Math.max(1, Math.min(batchSize, BatchExecutor.MAX_BATCH_SIZE));
+        this.retryBudget = retryBudget;
+    }
+
+    /**
+     * Queues the given request with others for the same API, and waits for its outcome; if first in its group,
+     * the calling thread sends the batch.
+     *
+     * @param <G> request type
+     * @param <T> response type
+     * @param <R> result type
+     * @param request request
+     * @param handler handler for request outcome
+     * @param deadline time (epoch millis) after which the caller stops waiting
+     * @return value returned by handler
+     */
+    public <G extends AbstractGoogleJsonClientRequest<T>, T, R> R execute(
+            final G request, final RequestResultHandler<G, T, R> handler, final long deadline) {
+
+        Pending<G, T, R> entry = new Pending<>(request, handler, deadline);
+        AbstractGoogleJsonClient client = request.getAbstractGoogleClient();
+        Group group;
+        boolean leader;
+        synchronized (groups) {
+            if (closed) {
+                throw new ConnectorException("Write coalescer was closed");
+            }
+
+            group = groups.computeIfAbsent(client, Group::new);
+            group.entries.add(entry);
+            leader = group.entries.size() == 1;
+            if (group.entries.size() >= batchSize) {
+                groups.remove(client);
+                group.ready = true;
+                groups.notifyAll();
+            }
+        }
+
+        if (leader) {
+            lead(group, deadline);
+        }
+
+        try {
+            return deadline == Long.MAX_VALUE
+                    ? entry.future.get()
+                    : entry.future.get(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw ConnectorException.wrap(e.getCause());
+        } catch (TimeoutException e) {
+            throw new OperationTimeoutException("Operation deadline exceeded while waiting for batched request", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ConnectorException.wrap(e);
+        }
+    }
+
+    /**
+     * Waits until the given group is ready, then sends it; other callers in the group depend on this, so the
+     * batch is sent even if the calling thread is interrupted meanwhile.
+     *
+     * @param group group of requests started by the calling thread
+     * @param deadline time (epoch millis) after which the caller stops waiting
+     */
+    private void lead(final Group group, final long deadline) {
+        long sendAt = Math.min(System.currentTimeMillis() + window, deadline);
+        boolean interrupted = false;
+        synchronized (groups) {
+            long wait;
+            while (!group.ready && !group.failed && (wait = sendAt - System.currentTimeMillis()) > 0) {
+                try {
+                    groups.wait(wait);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+            }
+            if (group.failed) {
+                return;
+            }
+            groups.remove(group.client, group);
+            group.ready = true;
+        }
+
+        try {
+            send(group.client, group.entries);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void send(final AbstractGoogleJsonClient client, final List<Pending<?, ?, ?>> entries) {
+        LOG.ok("Sending {0} coalesced requests", entries.size());
+        try {
+            BatchExecutor batch = new BatchExecutor(
+                    client,
+                    requestInitializer,
+                    batchSize,
+                    retryBudget,
+                    entries.stream().mapToLong(entry -> entry.deadline).min().orElse(Long.MAX_VALUE),
+                    ioStatistics);
+            entries.forEach(entry -> entry.queue(batch));
+            batch.execute();
+            entries.forEach(Pending::complete);
+        } catch (RuntimeException e) {
+            LOG.error(e, "While sending {0} coalesced requests", entries.size());
+            fail(entries, e);
+        }
+    }
+
+    private static void fail(final List<Pending<?, ?, ?>> entries, final RuntimeException e) {
+        entries.forEach(entry -> entry.future.completeExceptionally(e));
+    }
+
+    /**
+     * Fails all requests not sent yet, and rejects further ones; batches being sent are completed.
+     */
+    public void close() {
+        synchronized (groups) {
+            closed = true;
+            groups.values().forEach(group -> {
+                group.failed = true;
+                fail(group.entries, new ConnectorException("Write coalescer was closed"));
+            });
+            groups.clear();
+            groups.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright © 2018 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.admin.directory.Directory;
+import com.google.api.services.admin.directory.model.User;
+import com.google.api.services.admin.directory.model.UserName;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class BatchExecutorTests {
+
+    private static final RequestResultHandler<Directory.Users.Get, User, String> HANDLER =
+            new RequestResultHandler<Directory.Users.Get, User, String>() {
+
+        @Override
+        public String handleResult(final Directory.Users.Get request, final User value) {
+            return value.getPrimaryEmail();
+        }
+    };
+
+    private Directory directory;
+
+    @BeforeEach
+    public void setUp() {
+        MockGoogleTransport.reset((method, url, content) -> MockGoogleTransport.ok(
+                "{\"primaryEmail\":\"" + url.substring(url.lastIndexOf('/') + 1) + "@adomain\"}"));
+        directory = new Directory.Builder(new MockGoogleTransport(), new GsonFactory(), null).
+                setApplicationName("ConnId").
+                build();
+    }
+
+    private BatchExecutor newBatch(final int batchSize) {
+        return newBatch(batchSize, 0, Long.MAX_VALUE);
+    }
+
+    private BatchExecutor newBatch(final int batchSize, final int retryBudget, final long deadline) {
+        return new BatchExecutor(
+                directory, null, batchSize, retryBudget, deadline, new IOStatistics(new TransferStatistics()));
+    }
+
+    /**
+     * Fails the first request for each of the given users with the given error, then succeeds.
+     */
+    private static void failOnce(final MockGoogleTransport.Response error, final String... users) {
+        Set<String> failing = new HashSet<>(Arrays.asList(users));
+        MockGoogleTransport.reset((method, url, content) -> {
+            String user = url.substring(url.lastIndexOf('/') + 1);
+            return failing.remove(user)
+                    ? error
+                    : MockGoogleTransport.ok("{\"primaryEmail\":\"" + user + "@adomain\"}");
+        });
+    }
+
+    private static List<String> requestedUsers() {
+        return MockGoogleTransport.getRequests().stream().
+                map(request -> request.substring(request.lastIndexOf('/') + 1)).
+                collect(Collectors.toList());
+    }
+
+    private List<BatchExecutor.BatchItem<?>> getUsers(final BatchExecutor batch, final int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            batch.queue(directory.users().get("user" + i), HANDLER);
+        }
+        return batch.execute();
+    }
+
+    @Test
+    public void splitAtBatchSize() throws IOException {
+        List<BatchExecutor.BatchItem<?>> items = getUsers(newBatch(2), 5);
+
+        assertEquals(Arrays.asList(2, 2, 1), MockGoogleTransport.getBatches());
+        // outcomes are reported in queue order, whatever the chunk they were sent with
+        assertEquals(
+                IntStream.range(0, 5).mapToObj(i -> "user" + i + "@adomain").collect(Collectors.toList()),
+                items.stream().map(BatchExecutor.BatchItem::getResult).collect(Collectors.toList()));
+        BatchExecutor.checkFailures(items);
+    }
+
+    @Test
+    public void batchSizeLimitedByApi() throws IOException {
+        List<BatchExecutor.BatchItem<?>> items = getUsers(newBatch(5000), BatchExecutor.MAX_BATCH_SIZE + 1);
+
+        assertEquals(Arrays.asList(BatchExecutor.MAX_BATCH_SIZE, 1), MockGoogleTransport.getBatches());
+        assertEquals(BatchExecutor.MAX_BATCH_SIZE + 1, items.size());
+        assertTrue(items.stream().noneMatch(BatchExecutor.BatchItem::isFailed));
+    }
+
+    @Test
+    public void perItemOutcome() throws IOException {
+        MockGoogleTransport.reset((method, url, content) -> {
+            if (url.endsWith("/missing")) {
+                return MockGoogleTransport.error(404, "notFound");
+            }
+            if (url.endsWith("/existing")) {
+                return MockGoogleTransport.error(409, "duplicate");
+            }
+            if (url.endsWith("/invalid")) {
+                return MockGoogleTransport.error(400, "invalid");
+            }
+            return MockGoogleTransport.ok("{\"primaryEmail\":\"found@adomain\"}");
+        });
+
+        BatchExecutor batch = newBatch(10);
+        BatchExecutor.BatchItem<String> found = batch.queue(directory.users().get("found"), HANDLER);
+        BatchExecutor.BatchItem<String> missing = batch.queue(directory.users().get("missing"), HANDLER);
+        BatchExecutor.BatchItem<String> existing = batch.queue(directory.users().get("existing"), HANDLER);
+        BatchExecutor.BatchItem<String> invalid = batch.queue(directory.users().get("invalid"), HANDLER);
+        List<BatchExecutor.BatchItem<?>> items = batch.execute();
+
+        assertEquals(Arrays.asList(4), MockGoogleTransport.getBatches());
+
+        assertFalse(found.isFailed());
+        assertEquals("found@adomain", found.getResult());
+
+        assertTrue(missing.getError() instanceof UnknownUidException);
+        assertTrue(existing.getError() instanceof AlreadyExistsException);
+        assertTrue(invalid.isFailed());
+        assertFalse(invalid.getError() instanceof UnknownUidException);
+
+        ConnectorException error = assertThrows(ConnectorException.class, () -> BatchExecutor.checkFailures(items));
+        assertTrue(error.getMessage().startsWith("3 of 4 batched requests failed"), error.getMessage());
+        assertEquals(2, error.getSuppressed().length);
+    }
+
+    @Test
+    public void retryOnlyFailedParts() throws IOException {
+        failOnce(MockGoogleTransport.error(403, "rateLimitExceeded"), "user1");
+
+        List<BatchExecutor.BatchItem<?>> items = getUsers(newBatch(2, 10, Long.MAX_VALUE), 3);
+
+        // the throttled part alone is sent again, together with the part not sent yet
+        assertEquals(Arrays.asList(2, 2), MockGoogleTransport.getBatches());
+        assertEquals(Arrays.asList("user0", "user1", "user2", "user1"), requestedUsers());
+        assertEquals(
+                Arrays.asList("user0@adomain", "user1@adomain", "user2@adomain"),
+                items.stream().map(BatchExecutor.BatchItem::getResult).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void retryBackendError() throws IOException {
+        failOnce(MockGoogleTransport.error(503, "backendError"), "user0");
+
+        List<BatchExecutor.BatchItem<?>> items = getUsers(newBatch(2, 10, Long.MAX_VALUE), 1);
+
+        assertEquals(Arrays.asList(1, 1), MockGoogleTransport.getBatches());
+        BatchExecutor.checkFailures(items);
+    }
+
+    @Test
+    public void noRetryForOtherErrors() throws IOException {
+        failOnce(MockGoogleTransport.error(403, "forbidden"), "user0");
+
+        List<BatchExecutor.BatchItem<?>> items = getUsers(newBatch(2, 10, Long.MAX_VALUE), 1);
+
+        assertEquals(Arrays.asList(1), MockGoogleTransport.getBatches());
+        assertTrue(items.get(0).isFailed());
+    }
+
+    @Test
+    public void retryBudget() throws IOException {
+        failOnce(MockGoogleTransport.error(403, "userRateLimitExceeded"), "user0", "user1");
+
+        List<BatchExecutor.BatchItem<?>> items = getUsers(newBatch(2, 1, Long.MAX_VALUE), 2);
+
+        // one retry left in budget: the first throttled part is retried, the second fails
+        assertEquals(Arrays.asList(2, 1), MockGoogleTransport.getBatches());
+        assertEquals(Arrays.asList("user0", "user1", "user0"), requestedUsers());
+        assertFalse(items.get(0).isFailed());
+        assertTrue(items.get(1).isFailed());
+    }
+
+    @Test
+    public void retryDeadline() throws IOException {
+        failOnce(MockGoogleTransport.error(403, "rateLimitExceeded"), "user0");
+
+        // not enough time left for back-off before the deadline
+        List<BatchExecutor.BatchItem<?>> items = getUsers(
+                newBatch(2, 10, System.currentTimeMillis() + 1500), 1);
+
+        assertEquals(Arrays.asList(1), MockGoogleTransport.getBatches());
+        assertTrue(items.get(0).isFailed());
+    }
+
+    @Test
+    public void retryLoopStopsBeforeDeadline() throws IOException {
+        MockGoogleTransport.reset((method, url, content) -> MockGoogleTransport.error(503, "backendError"));
+
+        // time for one back-off only: 1 s at least, then 2 s at least would be needed
+        long deadline = System.currentTimeMillis() + 3500;
+        List<BatchExecutor.BatchItem<?>> items = getUsers(newBatch(2, 10, deadline), 1);
+
+        assertEquals(Arrays.asList(1, 1), MockGoogleTransport.getBatches());
+        assertTrue(items.get(0).isFailed());
+        assertTrue(System.currentTimeMillis() < deadline);
+    }
+
+    @Test
+    public void bytesReported() throws IOException {
+        IOStatistics statistics = new IOStatistics(new TransferStatistics());
+        BatchExecutor batch = new BatchExecutor(directory, null, 10, 0, Long.MAX_VALUE, statistics);
+        User user = new User().setPrimaryEmail("user2@adomain").setPassword("password").
+                setName(new UserName().setGivenName("Given").setFamilyName("Family"));
+        batch.queue(directory.users().get("user0"), HANDLER);
+        batch.queue(directory.users().get("user1"), HANDLER);
+        batch.queue(directory.users().insert(user), new RequestResultHandler<Directory.Users.Insert, User, String>() {
+
+            @Override
+            public String handleResult(final Directory.Users.Insert request, final User value) {
+                return value.getPrimaryEmail();
+            }
+        });
+        BatchExecutor.checkFailures(batch.execute());
+
+        // each part reports its own request and response bodies
+        EndpointStatistics get = statistics.getEndpoints().get("users.get");
+        assertEquals(2, get.getRequests());
+        assertEquals(0, get.getRequestBytes());
+        assertEquals(2 * "{\"primaryEmail\":\"user0@adomain\"}".length(), get.getResponseBytes());
+        EndpointStatistics insert = statistics.getEndpoints().get("users.insert");
+        assertEquals(new GsonFactory().toString(user).length(), insert.getRequestBytes());
+        assertEquals("{\"primaryEmail\":\"users@adomain\"}".length(), insert.getResponseBytes());
+
+        // the multipart request as a whole, parts with their MIME and HTTP headers
+        EndpointStatistics multipart = statistics.getEndpoints().get("batch");
+        assertEquals(1, multipart.getRequests());
+        assertTrue(multipart.getRequestBytes() > insert.getRequestBytes() + 3 * "application/http".length());
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright © 2018 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.identityconnectors.common.security.GuardedString;
+import org.junit.jupiter.api.Test;
+
+public class GoogleAppsClientRegistryTests {
+
+    private static GoogleAppsConfiguration configuration(final String clientSecret) {
+        GoogleAppsConfiguration configuration = new GoogleAppsConfiguration();
+        configuration.setClientId("aclientid");
+        configuration.setClientSecret(new GuardedString(clientSecret.toCharArray()));
+        configuration.setDomain("adomain");
+        configuration.setRefreshToken(new GuardedString("arefreshtoken".toCharArray()));
+        configuration.setHttpTransport(MockGoogleTransport.class.getName());
+        return configuration;
+    }
+
+    private static boolean isClosed(final GoogleAppsClients clients) {
+        return clients.getPrefetchExecutor().isShutdown();
+    }
+
+    @Test
+    public void sameKeySharesClients() {
+        GoogleAppsClients clients = GoogleAppsClientRegistry.acquire(configuration("aclientsecret"));
+        try {
+            // any configuration instance with the same settings gets the same clients
+            assertSame(clients, GoogleAppsClientRegistry.acquire(configuration("aclientsecret")));
+            GoogleAppsClientRegistry.release(clients);
+        } finally {
+            GoogleAppsClientRegistry.release(clients);
+        }
+    }
+
+    @Test
+    public void closeOnLastRelease() {
+        GoogleAppsClients clients = GoogleAppsClientRegistry.acquire(configuration("aclientsecret"));
+        assertSame(clients, GoogleAppsClientRegistry.acquire(configuration("aclientsecret")));
+
+        GoogleAppsClientRegistry.release(clients);
+        assertFalse(isClosed(clients));
+
+        GoogleAppsClientRegistry.release(clients);
+        assertTrue(isClosed(clients));
+
+        // once closed, new clients are built
+        GoogleAppsClients other = GoogleAppsClientRegistry.acquire(configuration("aclientsecret"));
+        try {
+            assertNotSame(clients, other);
+            assertFalse(isClosed(other));
+        } finally {
+            GoogleAppsClientRegistry.release(other);
+        }
+    }
+
+    @Test
+    public void differentSecretDifferentClients() {
+        GoogleAppsClients clients = GoogleAppsClientRegistry.acquire(configuration("aclientsecret"));
+        GoogleAppsClients other = GoogleAppsClientRegistry.acquire(configuration("anothersecret"));
+        try {
+            assertNotSame(clients, other);
+            assertNotEquals(clients.getKey(), other.getKey());
+            // secrets are hashed into the key, never kept in clear
+            assertFalse(other.getKey().contains("anothersecret"));
+
+            GoogleAppsClientRegistry.release(other);
+            assertTrue(isClosed(other));
+            assertFalse(isClosed(clients));
+        } finally {
+            GoogleAppsClientRegistry.release(clients);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright © 2018 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.auth.oauth2.AccessToken;
+import java.util.Collections;
+import org.identityconnectors.common.security.GuardedString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class GoogleAppsClientsTests {
+
+    private GoogleAppsConfiguration configuration;
+
+    private GoogleAppsClients clients;
+
+    @BeforeEach
+    public void setUp() {
+        MockGoogleTransport.reset((method, url, content) -> MockGoogleTransport.ok("{}"));
+
+        configuration = new GoogleAppsConfiguration();
+        configuration.setClientId("aclientid");
+        configuration.setClientSecret(new GuardedString("aclientsecret".toCharArray()));
+        configuration.setDomain("adomain");
+        configuration.setRefreshToken(new GuardedString("arefreshtoken".toCharArray()));
+        configuration.setHttpTransport(MockGoogleTransport.class.getName());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (null != clients) {
+            clients.close();
+        }
+    }
+
+    private static void await(final int tokenRequests) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (MockGoogleTransport.getTokenRequests() < tokenRequests && System.currentTimeMillis() < timeout) {
+            Thread.sleep(20);
+        }
+        assertTrue(MockGoogleTransport.getTokenRequests() >= tokenRequests,
+                "token requests " + MockGoogleTransport.getTokenRequests());
+    }
+
+    @Test
+    public void refreshBeforeExpiration() throws InterruptedException {
+        // each token is renewed about 1 s after being issued, well before it expires
+        MockGoogleTransport.setTokenLifetime(GoogleAppsClients.INLINE_REFRESH_MARGIN + 2);
+        configuration.setTokenRefreshMargin(GoogleAppsClients.INLINE_REFRESH_MARGIN + 1);
+        configuration.validate();
+        clients = new GoogleAppsClients("key", configuration, 100);
+
+        // the first token is obtained without any API request
+        await(1);
+        assertTrue(MockGoogleTransport.getRequests().isEmpty());
+
+        await(3);
+        AccessToken token = clients.getCredentials().getAccessToken();
+        assertTrue(token.getExpirationTime().getTime() - System.currentTimeMillis()
+                > (GoogleAppsClients.INLINE_REFRESH_MARGIN - 1) * 1000);
+    }
+
+    @Test
+    public void stopRefreshOnClose() throws InterruptedException {
+        MockGoogleTransport.setTokenLifetime(GoogleAppsClients.INLINE_REFRESH_MARGIN + 2);
+        configuration.setTokenRefreshMargin(GoogleAppsClients.INLINE_REFRESH_MARGIN + 1);
+        clients = new GoogleAppsClients("key", configuration, 100);
+        await(2);
+
+        clients.close();
+        int tokenRequests = MockGoogleTransport.getTokenRequests();
+        Thread.sleep(2500);
+
+        assertEquals(tokenRequests, MockGoogleTransport.getTokenRequests());
+    }
+
+    @Test
+    public void noRefreshWithoutMargin() throws InterruptedException {
+        clients = new GoogleAppsClients("key", configuration, 100);
+        Thread.sleep(500);
+
+        // tokens are obtained on demand only
+        assertEquals(0, MockGoogleTransport.getTokenRequests());
+    }
+
+    @Test
+    public void warmUpReleasesConnection() {
+        clients = new GoogleAppsClients("key", configuration);
+
+        clients.warmUp();
+
+        assertTrue(clients.getWarmUpTime() >= 0);
+        assertEquals(1, MockGoogleTransport.getTokenRequests());
+        // Directory and Licensing share the same endpoint
+        assertEquals(Collections.singletonList("HEAD https://www.googleapis.com/"), MockGoogleTransport.getRequests());
+        // the connection is handed back for reuse, not closed
+        assertEquals(1, MockGoogleTransport.getReleased());
+        assertEquals(0, MockGoogleTransport.getDisconnected());
+
+        // performed once only
+        clients.warmUp();
+        assertEquals(1, MockGoogleTransport.getRequests().size());
+    }
+
+    @Test
+    public void warmUpFailure() {
+        MockGoogleTransport.failTokens(MockGoogleTransport.error(400, "invalid_grant"));
+        clients = new GoogleAppsClients("key", configuration);
+
+        clients.warmUp();
+
+        assertEquals(-1, clients.getWarmUpTime());
+        assertTrue(MockGoogleTransport.getRequests().isEmpty());
+
+        // attempted again, as not completed
+        MockGoogleTransport.failTokens(null);
+        clients.warmUp();
+        assertTrue(clients.getWarmUpTime() >= 0);
+        assertEquals(1, MockGoogleTransport.getRequests().size());
+    }
+}
@@ -0,0 +1,594 @@
+/**
+ * Copyright © 2018 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.services.admin.directory.Directory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.stream.Collectors;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.identityconnectors.framework.common.exceptions.RetryableException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.ScriptContext;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Connector operations against {@link MockGoogleTransport}.
+ */
+public class GoogleAppsConnectorMockTests {
+
+    private static final String DIRECTORY_URL = "https://www.googleapis.com/admin/directory/v1/";
+
+    private GoogleAppsConfiguration configuration;
+
+    private GoogleAppsConnector connector;
+
+    @BeforeEach
+    public void setUp() {
+        init(10);
+    }
+
+    private void init(final int batchSize) {
+        MockGoogleTransport.reset((method, url, content) -> MockGoogleTransport.ok(
+                "{\"id\":\"" + method.toLowerCase() + "\",\"etag\":\"etag\"}"));
+
+        configuration = new GoogleAppsConfiguration();
+        configuration.setClientId("aclientid");
+        configuration.setClientSecret(new GuardedString("aclientsecret".toCharArray()));
+        configuration.setDomain("adomain");
+        configuration.setRefreshToken(new GuardedString("arefreshtoken".toCharArray()));
+        configuration.setHttpTransport(MockGoogleTransport.class.getName());
+        configuration.setBatchSize(batchSize);
+        configuration.setConnectorMessages((key, dflt, args) -> dflt);
+        configuration.validate();
+
+        connector = new GoogleAppsConnector();
+        connector.init(configuration);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        connector.dispose();
+        configuration.release();
+    }
+
+    @Test
+    public void retryLoopStopsBeforeDeadline() {
+        MockGoogleTransport.reset((method, url, content) -> MockGoogleTransport.error(403, "rateLimitExceeded"));
+        configuration.setOperationTimeout(3800);
+
+        // time for one back-off only: 1 s at least, then 2 s at least would be needed
+        long start = System.currentTimeMillis();
+        assertThrows(OperationTimeoutException.class, () -> connector.delete(
+                ObjectClass.ACCOUNT, new Uid("user0"), new OperationOptionsBuilder().build()));
+
+        assertTrue(System.currentTimeMillis() - start < 3800);
+        assertEquals(2, MockGoogleTransport.getRequests().size());
+    }
+
+    @Test
+    public void streamingSearchNotRetriedAfterPartialDelivery() {
+        MockGoogleTransport.reset((method, url, content) -> MockGoogleTransport.ok(
+                "{\"users\":[{\"id\":\"1\",\"primaryEmail\":\"user1@adomain\"},{\"id\":\"2\",\"prim"));
+        configuration.setStreamingDecoding(true);
+        configuration.setCustomSchemasJSON("[]");
+
+        List<String> found = new ArrayList<>();
+        assertThrows(ConnectorException.class, () -> connector.executeQuery(ObjectClass.ACCOUNT, null,
+                object -> found.add(object.getName().getNameValue()), new OperationOptionsBuilder().build()));
+
+        // the user read before the failure is not delivered twice
+        assertEquals(Collections.singletonList("user1@adomain"), found);
+        assertEquals(1, MockGoogleTransport.getRequests().size());
+    }
+
+    private static Set<Attribute> user(final Object... aliases) {
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(new Name("user@adomain"));
+        attributes.add(AttributeBuilder.buildPassword("password".toCharArray()));
+        attributes.add(AttributeBuilder.build(GoogleAppsConnector.GIVEN_NAME_ATTR, "Given"));
+        attributes.add(AttributeBuilder.build(GoogleAppsConnector.FAMILY_NAME_ATTR, "Family"));
+        attributes.add(AttributeBuilder.build(GoogleAppsConnector.ALIASES_ATTR, Arrays.asList(aliases)));
+        return attributes;
+    }
+
+    @Test
+    public void createUserWithInvalidAlias() {
+        assertThrows(InvalidAttributeValueException.class, () -> connector.create(
+                ObjectClass.ACCOUNT, user("alias1@adomain", 1), new OperationOptionsBuilder().build()));
+
+        // the user is not created, so there is nothing to delete afterwards
+        assertEquals(Collections.emptyList(), MockGoogleTransport.getRequests());
+        assertEquals(Collections.emptyList(), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void createUserWithAliases() {
+        connector.create(ObjectClass.ACCOUNT, user("alias1@adomain", "alias2@adomain"),
+                new OperationOptionsBuilder().build());
+
+        assertEquals(Collections.singletonList(2), MockGoogleTransport.getBatches());
+        assertEquals(Arrays.asList(
+                "POST " + DIRECTORY_URL + "users",
+                "POST " + DIRECTORY_URL + "users/post/aliases",
+                "POST " + DIRECTORY_URL + "users/post/aliases"),
+                MockGoogleTransport.getRequests());
+    }
+
+    private static Set<Attribute> group(final Object... members) {
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(new Name("group@adomain"));
+        attributes.add(AttributeBuilder.build(GoogleAppsConnector.MEMBERS_ATTR, Arrays.asList(members)));
+        return attributes;
+    }
+
+    private static Map<String, Object> member(final String email) {
+        Map<String, Object> member = new HashMap<>();
+        member.put(GoogleAppsConnector.EMAIL_ATTR, email);
+        member.put(GoogleAppsConnector.ROLE_ATTR, "MEMBER");
+        return member;
+    }
+
+    @Test
+    public void createGroupWithInvalidMember() {
+        assertThrows(RetryableException.class, () -> connector.create(
+                ObjectClass.GROUP, group(member("user1@adomain"), "user2@adomain"),
+                new OperationOptionsBuilder().build()));
+
+        // the group was created, but no insert was sent for the valid member
+        assertEquals(Collections.singletonList("POST " + DIRECTORY_URL + "groups"), MockGoogleTransport.getRequests());
+        assertEquals(Collections.emptyList(), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void createGroupWithMembers() {
+        connector.create(ObjectClass.GROUP, group(member("user1@adomain"), member("user2@adomain")),
+                new OperationOptionsBuilder().build());
+
+        assertEquals(Collections.singletonList(2), MockGoogleTransport.getBatches());
+        assertEquals(Arrays.asList(
+                "POST " + DIRECTORY_URL + "groups",
+                "POST " + DIRECTORY_URL + "groups/post/members",
+                "POST " + DIRECTORY_URL + "groups/post/members"),
+                MockGoogleTransport.getRequests());
+    }
+
+    private Object runScript(final String script, final Map<String, Object> arguments) {
+        return connector.runScriptOnConnector(
+                new ScriptContext(GoogleAppsConnector.SCRIPT_LANGUAGE, script, arguments),
+                new OperationOptionsBuilder().build());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> bulkDelete(final ObjectClass objectClass, final String... uids) {
+        MockGoogleTransport.reset((method, url, content) -> url.endsWith("/missing")
+                ? MockGoogleTransport.error(404, "notFound")
+                : new MockGoogleTransport.Response(204, ""));
+
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put(GoogleAppsConnector.OBJECT_CLASS_ARG, objectClass.getObjectClassValue());
+        arguments.put(GoogleAppsConnector.UIDS_ARG, Arrays.asList(uids));
+        return (Map<String, String>) runScript(GoogleAppsConnector.BULK_DELETE_SCRIPT, arguments);
+    }
+
+    private static void assertBulkDeleteOutcome(final Map<String, String> outcome) {
+        assertEquals(Arrays.asList("user1", "missing", "user3"), Arrays.asList(outcome.keySet().toArray()));
+        assertNull(outcome.get("user1"));
+        assertNotNull(outcome.get("missing"));
+        assertNull(outcome.get("user3"));
+    }
+
+    @Test
+    public void bulkDeleteBatched() {
+        assertBulkDeleteOutcome(bulkDelete(ObjectClass.ACCOUNT, "user1", "missing", "user3"));
+        assertEquals(Collections.singletonList(3), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void bulkDeleteUnbatched() {
+        tearDown();
+        init(0);
+
+        // batched anyway, rather than sending one request at a time
+        assertBulkDeleteOutcome(bulkDelete(ObjectClass.ACCOUNT, "user1", "missing", "user3"));
+        assertEquals(Collections.singletonList(3), MockGoogleTransport.getBatches());
+        assertEquals(3, MockGoogleTransport.getRequests().size());
+    }
+
+    @Test
+    public void bulkDeleteBatchSize() {
+        tearDown();
+        init(2);
+
+        assertBulkDeleteOutcome(bulkDelete(ObjectClass.ACCOUNT, "user1", "missing", "user3"));
+        assertEquals(Arrays.asList(2, 1), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void bulkDeleteInvalid() {
+        assertThrows(UnsupportedOperationException.class, () -> bulkDelete(ObjectClass.ALL, "user1"));
+        assertTrue(MockGoogleTransport.getRequests().isEmpty());
+
+        assertThrows(InvalidAttributeValueException.class,
+                () -> runScript(GoogleAppsConnector.BULK_DELETE_SCRIPT, Collections.emptyMap()));
+        assertThrows(UnsupportedOperationException.class, () -> runScript("unknown", Collections.emptyMap()));
+        assertThrows(UnsupportedOperationException.class, () -> connector.runScriptOnConnector(
+                new ScriptContext("Groovy", GoogleAppsConnector.BULK_DELETE_SCRIPT, Collections.emptyMap()),
+                new OperationOptionsBuilder().build()));
+    }
+
+    /**
+     * Users are returned by key, with the same id, except for 'missing' (not found); any list request returns
+     * user1 only.
+     */
+    private List<String> searchUsers(final Filter filter) {
+        MockGoogleTransport.reset((method, url, content) -> {
+            String path = url.contains("?") ? url.substring(0, url.indexOf('?')) : url;
+            String key = path.substring(path.lastIndexOf('/') + 1);
+            if ("missing".equals(key)) {
+                return MockGoogleTransport.error(404, "notFound");
+            }
+            return "users".equals(key)
+                    ? MockGoogleTransport.ok("{\"users\":[{\"id\":\"user1\",\"primaryEmail\":\"user1@adomain\"}]}")
+                    : MockGoogleTransport.ok("{\"id\":\"" + key + "\",\"primaryEmail\":\"" + key + "@adomain\"}");
+        });
+        configuration.setCustomSchemasJSON("[]");
+
+        List<String> users = new ArrayList<>();
+        connector.executeQuery(ObjectClass.ACCOUNT, filter,
+                object -> users.add(object.getName().getNameValue()), new OperationOptionsBuilder().build());
+        return users;
+    }
+
+    private static Filter keys() {
+        return FilterBuilder.or(
+                FilterBuilder.equalTo(new Uid("user1")),
+                FilterBuilder.or(
+                        FilterBuilder.equalTo(new Name("user2")),
+                        FilterBuilder.equalTo(new Uid("missing"))));
+    }
+
+    @Test
+    public void readByKeysBatched() {
+        assertEquals(Arrays.asList("user1@adomain", "user2@adomain"), searchUsers(keys()));
+
+        assertEquals(Collections.singletonList(3), MockGoogleTransport.getBatches());
+        assertEquals(Arrays.asList(
+                "GET " + DIRECTORY_URL + "users/user1",
+                "GET " + DIRECTORY_URL + "users/user2",
+                "GET " + DIRECTORY_URL + "users/missing"),
+                MockGoogleTransport.getRequests());
+    }
+
+    @Test
+    public void readByKeysUnbatched() {
+        tearDown();
+        init(0);
+
+        // batched anyway, rather than reading one key at a time
+        assertEquals(Arrays.asList("user1@adomain", "user2@adomain"), searchUsers(keys()));
+
+        assertEquals(Collections.singletonList(3), MockGoogleTransport.getBatches());
+        assertEquals(3, MockGoogleTransport.getRequests().size());
+    }
+
+    @Test
+    public void readByKeysFallback() {
+        // not only keys: a single search request instead of one read per key
+        assertEquals(Collections.singletonList("user1@adomain"), searchUsers(FilterBuilder.or(
+                FilterBuilder.equalTo(new Uid("user2")),
+                FilterBuilder.startsWith(AttributeBuilder.build(GoogleAppsConnector.EMAIL_ATTR, "user1")))));
+
+        assertEquals(Collections.emptyList(), MockGoogleTransport.getBatches());
+        assertEquals(Collections.singletonList("GET " + DIRECTORY_URL + "users"), MockGoogleTransport.getRequests());
+    }
+
+    private static Map<String, Object> orgunit(final String name, final String parent) {
+        Map<String, Object> orgunit = new HashMap<>();
+        orgunit.put(Name.NAME, name);
+        if (null != parent) {
+            orgunit.put(GoogleAppsConnector.PARENT_ORG_UNIT_PATH_ATTR, parent);
+        }
+        return orgunit;
+    }
+
+    private Map<?, ?> bulkCreateOrgunits(final Map<?, ?>... orgunits) {
+        return (Map<?, ?>) runScript(GoogleAppsConnector.BULK_CREATE_ORGUNITS_SCRIPT,
+                Collections.singletonMap(GoogleAppsConnector.ORGUNITS_ARG, Arrays.asList(orgunits)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> created(final Map<?, ?> result) {
+        return (Map<String, String>) result.get(GoogleAppsConnector.ORGUNITS_ARG);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Integer, String> invalid(final Map<?, ?> result) {
+        return (Map<Integer, String>) result.get(GoogleAppsConnector.INVALID_RESULT);
+    }
+
+    @Test
+    public void bulkCreateOrgunits() {
+        MockGoogleTransport.reset((method, url, content) -> MockGoogleTransport.ok(
+                "{\"orgUnitPath\":\"/any\",\"etag\":\"etag\"}"));
+
+        Map<?, ?> result = bulkCreateOrgunits(
+                orgunit("child", "/parent"), orgunit("parent", "/"), orgunit("orphan", null));
+
+        Map<String, String> outcome = created(result);
+        assertEquals(Arrays.asList("parent/child", "parent"), Arrays.asList(outcome.keySet().toArray()));
+        assertNull(outcome.get("parent/child"));
+        assertNull(outcome.get("parent"));
+        // the invalid definition does not prevent the others from being created
+        assertEquals(Collections.singleton(2), invalid(result).keySet());
+        assertTrue(invalid(result).get(2).contains("parentOrgUnitPath"));
+
+        // parents first, each level in its own batch
+        assertEquals(Arrays.asList(1, 1), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void bulkCreateOrgunitsUnbatched() {
+        tearDown();
+        init(0);
+        MockGoogleTransport.reset((method, url, content) -> MockGoogleTransport.ok(
+                "{\"orgUnitPath\":\"/any\",\"etag\":\"etag\"}"));
+
+        Map<String, String> outcome = created(bulkCreateOrgunits(
+                orgunit("parent1", "/"), orgunit("parent2", "/"), orgunit("child", "/parent1")));
+
+        assertEquals(Arrays.asList(null, null, null), new ArrayList<>(outcome.values()));
+        // batched anyway, rather than creating one OrgUnit at a time
+        assertEquals(Arrays.asList(2, 1), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void bulkCreateOrgunitsFailedParent() {
+        MockGoogleTransport.reset((method, url, content) -> content.contains("\"name\":\"parent\"")
+                ? MockGoogleTransport.error(400, "invalid")
+                : MockGoogleTransport.ok("{\"orgUnitPath\":\"/any\",\"etag\":\"etag\"}"));
+
+        Map<String, String> outcome = created(bulkCreateOrgunits(orgunit("parent", "/"), orgunit("child", "parent")));
+
+        assertNotNull(outcome.get("parent"));
+        assertTrue(outcome.get("parent/child").contains("not created"));
+        assertEquals(Collections.singletonList(1), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void bulkCreateOrgunitsDuplicates() {
+        assertThrows(InvalidAttributeValueException.class, () -> bulkCreateOrgunits(
+                orgunit("parent", "/"), orgunit("child", "/parent"), orgunit("child", "parent")));
+        assertTrue(MockGoogleTransport.getRequests().isEmpty());
+    }
+
+    @Test
+    public void bulkCreateOrgunitsInvalidNotDuplicate() {
+        MockGoogleTransport.reset((method, url, content) -> MockGoogleTransport.ok(
+                "{\"orgUnitPath\":\"/any\",\"etag\":\"etag\"}"));
+
+        // the invalid definition has the same name as the valid one, and a position which could be a name as well
+        Map<String, Object> unnamed = new HashMap<>();
+        unnamed.put(GoogleAppsConnector.PARENT_ORG_UNIT_PATH_ATTR, "/");
+        Map<?, ?> result = bulkCreateOrgunits(orgunit("parent", null), orgunit("parent", "/"), unnamed,
+                orgunit("#2", "/"));
+
+        assertEquals(Arrays.asList("parent", "#2"), new ArrayList<>(created(result).keySet()));
+        assertNull(created(result).get("parent"));
+        assertNull(created(result).get("#2"));
+        assertEquals(Arrays.asList(0, 2), new ArrayList<>(invalid(result).keySet()));
+        assertEquals(Collections.singletonList(2), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void bulkCreateOrgunitsTrailingSeparator() {
+        List<String> contents = Collections.synchronizedList(new ArrayList<>());
+        MockGoogleTransport.reset((method, url, content) -> {
+            contents.add(content);
+            return MockGoogleTransport.ok("{\"orgUnitPath\":\"/any\",\"etag\":\"etag\"}");
+        });
+
+        Map<?, ?> result = bulkCreateOrgunits(orgunit("child", "/parent/"), orgunit("parent", "/"));
+
+        assertEquals(Arrays.asList("parent/child", "parent"), new ArrayList<>(created(result).keySet()));
+        assertTrue(invalid(result).isEmpty());
+        // the child is created after its parent, under the normalized path
+        assertEquals(Arrays.asList(1, 1), MockGoogleTransport.getBatches());
+        assertTrue(contents.get(1).contains("\"parentOrgUnitPath\":\"/parent\""));
+    }
+
+    private static final String DOMAINS = "{\"domains\":[{\"domainName\":\"domain1\"},"
+            + "{\"domainName\":\"domain2\"}]}";
+
+    @Test
+    public void userShardsByDomain() throws IOException {
+        MockGoogleTransport.reset((method, url, content) -> MockGoogleTransport.ok(DOMAINS));
+        Directory.Users.List request = configuration.getDirectory().users().list().
+                setCustomer(GoogleAppsConnector.MY_CUSTOMER_ID).setMaxResults(50).setProjection("full");
+
+        List<Directory.Users.List> shards = connector.userShards(request);
+
+        assertEquals(Collections.singletonList("GET " + DIRECTORY_URL + "customer/my_customer/domains"),
+                MockGoogleTransport.getRequests());
+        // same search, restricted to each domain instead of the whole customer
+        assertEquals(Arrays.asList("domain1", "domain2"),
+                shards.stream().map(Directory.Users.List::getDomain).collect(Collectors.toList()));
+        for (Directory.Users.List shard : shards) {
+            assertNull(shard.getCustomer());
+            assertEquals(Integer.valueOf(50), shard.getMaxResults());
+            assertEquals("full", shard.getProjection());
+        }
+    }
+
+    @Test
+    public void shardedUserScan() {
+        // two pages of users for domain1, one for domain2
+        MockGoogleTransport.reset((method, url, content) -> {
+            if (url.contains("/domains")) {
+                return MockGoogleTransport.ok(DOMAINS);
+            }
+            String domain = url.replaceAll(".*[?&]domain=([^&]*).*", "$1");
+            int page = url.contains("pageToken=2") ? 2 : 1;
+            return MockGoogleTransport.ok("{\"users\":[{\"id\":\"" + domain + page + "\","
+                    + "\"primaryEmail\":\"user" + page + "@" + domain + "\"}]"
+                    + ("domain1".equals(domain) && page == 1 ? ",\"nextPageToken\":\"2\"" : "") + "}");
+        });
+        configuration.setShardedUserScan(true);
+        configuration.setPrefetchDepth(1);
+        configuration.setCustomSchemasJSON("[]");
+
+        Set<String> users = Collections.synchronizedSet(new HashSet<>());
+        connector.executeQuery(ObjectClass.ACCOUNT, null,
+                object -> users.add(object.getName().getNameValue()), new OperationOptionsBuilder().build());
+
+        assertEquals(new HashSet<>(Arrays.asList("user1@domain1", "user2@domain1", "user1@domain2")), users);
+        List<String> requests = MockGoogleTransport.getRequests();
+        assertEquals("GET " + DIRECTORY_URL + "customer/my_customer/domains", requests.get(0));
+        assertEquals(Collections.nCopies(3, "GET " + DIRECTORY_URL + "users"), requests.subList(1, requests.size()));
+    }
+
+    private static final String LICENSING_URL = "https://www.googleapis.com/apps/licensing/v1/product/";
+
+    /**
+     * One page of license assignments per product, two for the first one, none for the second one (not found).
+     */
+    private static void licenseAssignments() {
+        MockGoogleTransport.reset((method, url, content) -> {
+            String productId = url.substring(LICENSING_URL.length(), url.indexOf("/users"));
+            if (LicenseAssignmentsHandler.PRODUCT_IDS.get(1).equals(productId)) {
+                return MockGoogleTransport.error(404, "notFound");
+            }
+            boolean first = LicenseAssignmentsHandler.PRODUCT_IDS.get(0).equals(productId);
+            String page = first && url.contains("pageToken=page2") ? "2" : "1";
+            return MockGoogleTransport.ok("{\"items\":[{\"productId\":\"" + productId + "\",\"skuId\":\"sku\","
+                    + "\"userId\":\"user" + page + "@adomain\"}]"
+                    + (first && "1".equals(page) ? ",\"nextPageToken\":\"page2\"" : "") + "}");
+        });
+    }
+
+    private final List<String> found = new ArrayList<>();
+
+    /**
+     * @return paged results cookie returned, null if none
+     */
+    private String searchLicenseAssignments(final String cookie) {
+        found.clear();
+        OperationOptionsBuilder options = new OperationOptionsBuilder().setPageSize(10);
+        if (null != cookie) {
+            options.setPagedResultsCookie(cookie);
+        }
+
+        String[] next = new String[1];
+        connector.executeQuery(GoogleAppsConnector.LICENSE_ASSIGNMENT, null, new SearchResultsHandler() {
+
+            @Override
+            public boolean handle(final ConnectorObject object) {
+                return found.add(object.getUid().getUidValue());
+            }
+
+            @Override
+            public void handleResult(final SearchResult result) {
+                next[0] = result.getPagedResultsCookie();
+            }
+        }, options.build());
+        return next[0];
+    }
+
+    @Test
+    public void licenseAssignmentsCookieRoundTrip() {
+        licenseAssignments();
+        String productId = LicenseAssignmentsHandler.PRODUCT_IDS.get(0);
+
+        String cookie = searchLicenseAssignments(null);
+        assertEquals(Collections.singletonList(productId + "/sku/sku/user/user1@adomain"), found);
+        assertEquals("0:page2", cookie);
+
+        // next page of the same product, then on to the next product
+        cookie = searchLicenseAssignments(cookie);
+        assertEquals(Collections.singletonList(productId + "/sku/sku/user/user2@adomain"), found);
+        assertEquals("1:", cookie);
+        assertEquals(Arrays.asList(LICENSING_URL + productId + "/users", LICENSING_URL + productId + "/users"),
+                MockGoogleTransport.getRequests().stream().map(request -> request.substring(4)).
+                        collect(Collectors.toList()));
+    }
+
+    @Test
+    public void licenseAssignmentsProductNotFound() {
+        licenseAssignments();
+
+        // the product not available for the customer yields no results, but does not end the search
+        assertEquals("2:", searchLicenseAssignments("1:"));
+        assertTrue(found.isEmpty());
+    }
+
+    @Test
+    public void licenseAssignmentsLastProduct() {
+        licenseAssignments();
+        int last = LicenseAssignmentsHandler.PRODUCT_IDS.size() - 1;
+
+        assertNull(searchLicenseAssignments(last + ":"));
+        assertEquals(Collections.singletonList(
+                LicenseAssignmentsHandler.PRODUCT_IDS.get(last) + "/sku/sku/user/user1@adomain"), found);
+
+        assertThrows(IllegalArgumentException.class, () -> searchLicenseAssignments((last + 1) + ":"));
+    }
+
+    @Test
+    public void licenseNamePattern() {
+        for (String productId : LicenseAssignmentsHandler.PRODUCT_IDS) {
+            for (String skuId : LicenseAssignmentsHandler.SKU_IDS) {
+                Matcher name = LicenseAssignmentsHandler.LICENSE_NAME_PATTERN.matcher(
+                        productId + "/sku/" + skuId + "/user/user@adomain");
+                assertTrue(name.matches());
+                assertEquals(productId, name.group(1));
+                assertEquals(skuId, name.group(2));
+                assertEquals("user@adomain", name.group(3));
+            }
+        }
+        assertFalse(LicenseAssignmentsHandler.LICENSE_NAME_PATTERN.matcher(
+                "Google-Apps/sku/Google-Apps-Unknown/user/user@adomain").matches());
+    }
+}
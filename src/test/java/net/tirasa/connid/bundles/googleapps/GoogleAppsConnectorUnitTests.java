@@ -15,16 +15,27 @@
  */
 package net.tirasa.connid.bundles.googleapps;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.google.api.client.http.HttpTransport;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.api.APIConfiguration;
 import org.identityconnectors.framework.api.ConnectorFacade;
 import org.identityconnectors.framework.api.ConnectorFacadeFactory;
+import org.identityconnectors.framework.common.exceptions.ConfigurationException;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeInfo;
+import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.ObjectClassInfo;
 import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
 import org.identityconnectors.test.common.TestHelpers;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -62,6 +73,15 @@ public class GoogleAppsConnectorUnitTests {
         return factory.newInstance(impl);
     }
 
+    private static GoogleAppsConfiguration newConfiguration() {
+        GoogleAppsConfiguration configuration = new GoogleAppsConfiguration();
+        configuration.setClientId("aclientid");
+        configuration.setClientSecret(new GuardedString("aclientsecret".toCharArray()));
+        configuration.setDomain("adomain");
+        configuration.setRefreshToken(new GuardedString("arefreshtoken".toCharArray()));
+        return configuration;
+    }
+
     @Test
     public void validate() {
         connector.validate();
@@ -95,4 +115,96 @@ public class GoogleAppsConnectorUnitTests {
         assertTrue(customSingleValuedSchemaFound2);
         assertTrue(customMultivaluedSchemaFound);
     }
+
+    @Test
+    public void validateHttpTransport() {
+        GoogleAppsConfiguration configuration = newConfiguration();
+
+        configuration.setHttpTransport(HttpTransportFactory.APACHE);
+        configuration.validate();
+
+        configuration.setHttpTransport("com.google.api.client.http.javanet.NetHttpTransport");
+        configuration.validate();
+
+        configuration.setHttpTransport("unknown");
+        assertThrows(IllegalArgumentException.class, configuration::validate);
+
+        configuration.setHttpTransport(String.class.getName());
+        assertThrows(IllegalArgumentException.class, configuration::validate);
+
+        configuration.setHttpTransport(HttpTransportFactory.HTTP2);
+        configuration.validate();
+
+        // abstract class
+        configuration.setHttpTransport(HttpTransport.class.getName());
+        assertThrows(IllegalArgumentException.class, configuration::validate);
+
+        // no public no-argument constructor
+        configuration.setHttpTransport(Http2Transport.class.getName());
+        assertThrows(IllegalArgumentException.class, configuration::validate);
+        assertThrows(ConfigurationException.class,
+                () -> HttpTransportFactory.build(configuration, new TransferStatistics()));
+
+        configuration.setHttpTransport(HttpTransportFactory.APACHE);
+        configuration.setMaxConnectionsPerRoute(0);
+        assertThrows(IllegalArgumentException.class, configuration::validate);
+    }
+
+    @Test
+    public void validateGzipEncoding() {
+        GoogleAppsConfiguration configuration = newConfiguration();
+        configuration.setGzipEncoding(true);
+
+        configuration.setHttpTransport(HttpTransportFactory.APACHE);
+        configuration.validate();
+
+        configuration.setHttpTransport(HttpTransportFactory.NET);
+        assertThrows(IllegalArgumentException.class, configuration::validate);
+    }
+
+    @Test
+    public void validateTokenRefreshMargin() {
+        GoogleAppsConfiguration configuration = newConfiguration();
+
+        configuration.setTokenRefreshMargin(0);
+        configuration.validate();
+
+        configuration.setTokenRefreshMargin(600);
+        configuration.validate();
+
+        configuration.setTokenRefreshMargin(GoogleAppsClients.INLINE_REFRESH_MARGIN + 1);
+        configuration.validate();
+
+        // the authentication library would refresh inline first
+        configuration.setTokenRefreshMargin(GoogleAppsClients.INLINE_REFRESH_MARGIN);
+        assertThrows(IllegalArgumentException.class, configuration::validate);
+
+        configuration.setTokenRefreshMargin(1);
+        assertThrows(IllegalArgumentException.class, configuration::validate);
+
+        configuration.setTokenRefreshMargin(GoogleAppsClients.ACCESS_TOKEN_LIFETIME);
+        assertThrows(IllegalArgumentException.class, configuration::validate);
+
+        configuration.setTokenRefreshMargin(-1);
+        assertThrows(IllegalArgumentException.class, configuration::validate);
+    }
+
+    @Test
+    public void getKeysFromFilter() {
+        GoogleAppsConnector googleApps = new GoogleAppsConnector();
+
+        assertEquals(
+                new LinkedHashSet<>(Arrays.asList("id1", "user2@adomain", "id3")),
+                googleApps.getKeysFromFilter(ObjectClass.ACCOUNT, FilterBuilder.or(
+                        FilterBuilder.equalTo(new Uid("id1")),
+                        FilterBuilder.or(
+                                FilterBuilder.equalTo(new Name("user2@adomain")),
+                                FilterBuilder.equalTo(new Uid("id3"))))));
+
+        assertNull(googleApps.getKeysFromFilter(ObjectClass.GROUP, FilterBuilder.or(
+                FilterBuilder.equalTo(new Uid("id1")),
+                FilterBuilder.startsWith(AttributeBuilder.build(GoogleAppsConnector.EMAIL_ATTR, "group")))));
+
+        assertNull(googleApps.getKeysFromFilter(ObjectClass.ACCOUNT, FilterBuilder.equalTo(new Uid("id1"))));
+    }
 }
@@ -0,0 +1,345 @@
+/**
+ * Copyright © 2018 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpTransport;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+public class Http2TransportTests {
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Cleartext HTTP/2 server.
+     */
+    private HttpAsyncServer server;
+
+    private String baseUrl;
+
+    /**
+     * HTTP/1.1 server, for comparison.
+     */
+    private HttpServer http1Server;
+
+    private String http1Url;
+
+    private volatile long latency;
+
+    private volatile int responseSize;
+
+    private final Set<SocketAddress> connections = ConcurrentHashMap.newKeySet();
+
+    private final List<HttpTransport> transports = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        latency = 0;
+        responseSize = 16;
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        // /echo returns the request body, /missing a 404, any other path responseSize bytes after latency ms
+        server = H2ServerBootstrap.bootstrap().
+                setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2).
+                register("*", new AsyncServerRequestHandler<Message<HttpRequest, String>>() {
+
+                    @Override
+                    public BasicRequestConsumer<String> prepare(
+                            final HttpRequest request,
+                            final EntityDetails entityDetails,
+                            final HttpContext context) {
+
+                        return new BasicRequestConsumer<>(
+                                entityDetails == null ? null : new StringAsyncEntityConsumer());
+                    }
+
+                    @Override
+                    public void handle(
+                            final Message<HttpRequest, String> message,
+                            final ResponseTrigger responseTrigger,
+                            final HttpContext context) {
+
+                        connections.add(HttpCoreContext.adapt(context).getEndpointDetails().getRemoteAddress());
+                        String path = message.getHead().getPath();
+                        scheduler.schedule(() -> {
+                            try {
+                                if (path.startsWith("/echo")) {
+                                    responseTrigger.submitResponse(AsyncResponseBuilder.create(200).
+                                            setHeader("X-Method", message.getHead().getMethod()).
+                                            setEntity(AsyncEntityProducers.create(
+                                                    message.getBody(), ContentType.TEXT_PLAIN)).
+                                            build(), context);
+                                } else if (path.startsWith("/missing")) {
+                                    responseTrigger.submitResponse(AsyncResponseBuilder.create(404).
+                                            setEntity("{\"error\":\"notFound\"}", ContentType.APPLICATION_JSON).
+                                            build(), context);
+                                } else {
+                                    char[] body = new char[responseSize];
+                                    Arrays.fill(body, 'x');
+                                    responseTrigger.submitResponse(AsyncResponseBuilder.create(200).
+                                            setEntity(new String(body), ContentType.APPLICATION_JSON).
+                                            build(), context);
+                                }
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }, latency, TimeUnit.MILLISECONDS);
+                    }
+                }).
+                create();
+        server.start();
+        ListenerEndpoint endpoint = server.listen(new InetSocketAddress("localhost", 0), URIScheme.HTTP).get();
+        baseUrl = "http://localhost:" + ((InetSocketAddress) endpoint.getAddress()).getPort();
+
+        http1Server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        http1Server.createContext("/", exchange -> {
+            connections.add(exchange.getRemoteAddress());
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = new byte[responseSize];
+            Arrays.fill(body, (byte) 'x');
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http1Server.setExecutor(Executors.newCachedThreadPool());
+        http1Server.start();
+        http1Url = "http://localhost:" + http1Server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (HttpTransport transport : transports) {
+            transport.shutdown();
+        }
+        server.close(CloseMode.IMMEDIATE);
+        http1Server.stop(0);
+        ((ExecutorService) http1Server.getExecutor()).shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private HttpTransport transport(final String httpTransport, final int maxConnectionsPerRoute) {
+        GoogleAppsConfiguration configuration = new GoogleAppsConfiguration();
+        configuration.setHttpTransport(httpTransport);
+        configuration.setMaxConnections(Math.max(configuration.getMaxConnections(), maxConnectionsPerRoute));
+        configuration.setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+        HttpTransport transport = HttpTransportFactory.build(configuration, new TransferStatistics());
+        transports.add(transport);
+        return transport;
+    }
+
+    private HttpTransport http2() {
+        return transport(HttpTransportFactory.HTTP2, 1);
+    }
+
+    @Test
+    public void getAndPost() throws IOException {
+        HttpRequestFactory factory = http2().createRequestFactory();
+
+        HttpResponse response = factory.buildGetRequest(new GenericUrl(baseUrl + "/data")).execute();
+        assertEquals(200, response.getStatusCode());
+        assertTrue(response.getContentType().startsWith("application/json"));
+        assertEquals("xxxxxxxxxxxxxxxx", response.parseAsString());
+
+        response = factory.buildPostRequest(new GenericUrl(baseUrl + "/echo"),
+                ByteArrayContent.fromString("text/plain", "{\"name\":\"value\"}")).execute();
+        assertEquals(200, response.getStatusCode());
+        assertEquals("POST", response.getHeaders().getFirstHeaderStringValue("X-Method"));
+        assertEquals("{\"name\":\"value\"}", response.parseAsString());
+    }
+
+    @Test
+    public void errorStatus() {
+        HttpRequestFactory factory = http2().createRequestFactory();
+
+        HttpResponseException error = assertThrows(HttpResponseException.class,
+                () -> factory.buildGetRequest(new GenericUrl(baseUrl + "/missing")).execute());
+        assertEquals(404, error.getStatusCode());
+        assertEquals("{\"error\":\"notFound\"}", error.getContent());
+    }
+
+    @Test
+    public void streamLargeResponse() throws IOException {
+        // several times the transport buffer: relies on flow control following the reader
+        responseSize = 1024 * 1024;
+        HttpRequestFactory factory = http2().createRequestFactory();
+
+        HttpResponse response = factory.buildGetRequest(new GenericUrl(baseUrl + "/data")).execute();
+        long count = 0;
+        try (InputStream content = response.getContent()) {
+            byte[] buffer = new byte[8192];
+            for (int read = content.read(buffer); read != -1; read = content.read(buffer)) {
+                count += read;
+            }
+        }
+        assertEquals(responseSize, count);
+
+        // the connection is still usable afterwards
+        responseSize = 16;
+        assertEquals(16, factory.buildGetRequest(new GenericUrl(baseUrl + "/data")).execute().
+                parseAsString().length());
+    }
+
+    @Test
+    public void concurrentRequestsShareConnection() throws Exception {
+        latency = 300;
+        HttpRequestFactory factory = http2().createRequestFactory();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            long start = System.currentTimeMillis();
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> factory.buildGetRequest(new GenericUrl(baseUrl + "/data")).
+                        execute().parseAsString()));
+            }
+            for (Future<String> result : results) {
+                assertEquals(16, result.get().length());
+            }
+
+            // all requests in flight at the same time, over a single connection
+            assertTrue(System.currentTimeMillis() - start < 8 * latency);
+            assertEquals(1, connections.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Compares the pooled HTTP/1.1 transport with the HTTP/2 transport on concurrent callers and servers with
+     * the same fixed latency; run with {@code -Dbenchmark=true}.
+     *
+     * @throws Exception if any request fails
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmark() throws Exception {
+        latency = 50;
+        responseSize = 16 * 1024;
+        int callers = 32;
+        int requestsPerCaller = 20;
+
+        System.out.println(String.format("%d callers x %d requests, %dms latency, %d bytes per response",
+                callers, requestsPerCaller, latency, responseSize));
+        System.out.println(String.format("%-22s %10s %8s %8s %12s",
+                "transport", "req/s", "p50 ms", "p99 ms", "connections"));
+
+        benchmark("apache (10 per route)", transport(HttpTransportFactory.APACHE, 10), http1Url,
+                callers, requestsPerCaller);
+        benchmark("apache (32 per route)", transport(HttpTransportFactory.APACHE, 32), http1Url,
+                callers, requestsPerCaller);
+        benchmark("http2", http2(), baseUrl, callers, requestsPerCaller);
+    }
+
+    private void benchmark(
+            final String name,
+            final HttpTransport transport,
+            final String serverUrl,
+            final int callers,
+            final int requestsPerCaller) throws Exception {
+
+        HttpRequestFactory factory = transport.createRequestFactory();
+        GenericUrl url = new GenericUrl(serverUrl + "/data");
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            for (int round = 0; round < 2; round++) {
+                connections.clear();
+                List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+                List<Future<?>> results = new ArrayList<>();
+
+                long start = System.nanoTime();
+                for (int i = 0; i < callers; i++) {
+                    results.add(executor.submit(() -> {
+                        for (int j = 0; j < requestsPerCaller; j++) {
+                            long requestStart = System.nanoTime();
+                            String body = factory.buildGetRequest(url).execute().parseAsString();
+                            latencies.add(System.nanoTime() - requestStart);
+                            assertEquals(responseSize, body.length());
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+                long elapsed = System.nanoTime() - start;
+
+                // the first round warms up connections and JIT
+                if (round == 1) {
+                    Collections.sort(latencies);
+                    System.out.println(String.format("%-22s %10.0f %8d %8d %12d",
+                            name,
+                            latencies.size() / (elapsed / 1e9),
+                            TimeUnit.NANOSECONDS.toMillis(latencies.get(latencies.size() / 2)),
+                            TimeUnit.NANOSECONDS.toMillis(latencies.get(latencies.size() * 99 / 100)),
+                            connections.size()));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/**
+ * Copyright © 2018 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fake Google API endpoint: answers token requests, plain API requests and JSON batch requests, part by part,
+ * via a global {@link Responder}; can be set as {@code httpTransport} in connector configuration.
+ */
+public class MockGoogleTransport extends MockHttpTransport {
+
+    public static final String TOKEN_URL = "https://oauth2.googleapis.com/token";
+
+    private static final String BOUNDARY = "batch_mock";
+
+    @FunctionalInterface
+    public interface Responder {
+
+        /**
+         * @param method HTTP method
+         * @param url request URL
+         * @param content request content, empty if none
+         * @return response to send
+         */
+        Response respond(String method, String url, String content);
+    }
+
+    public static final class Response {
+
+        private final int status;
+
+        private final String content;
+
+        public Response(final int status, final String content) {
+            this.status = status;
+            this.content = content;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getContent() {
+            return content;
+        }
+    }
+
+    private static volatile Responder responder;
+
+    private static volatile Response batchResponse;
+
+    private static volatile long tokenLifetime = 3600;
+
+    private static volatile Response tokenResponse;
+
+    private static final AtomicInteger RELEASED = new AtomicInteger();
+
+    private static final AtomicInteger DISCONNECTED = new AtomicInteger();
+
+    private static final AtomicInteger TOKEN_REQUESTS = new AtomicInteger();
+
+    private static final List<String> REQUESTS = Collections.synchronizedList(new ArrayList<>());
+
+    private static final List<Integer> BATCHES = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Sets how requests are answered, forgetting all requests received so far.
+     *
+     * @param responder responder
+     */
+    public static void reset(final Responder responder) {
+        MockGoogleTransport.responder = responder;
+        MockGoogleTransport.batchResponse = null;
+        MockGoogleTransport.tokenLifetime = 3600;
+        MockGoogleTransport.tokenResponse = null;
+        TOKEN_REQUESTS.set(0);
+        RELEASED.set(0);
+        DISCONNECTED.set(0);
+        REQUESTS.clear();
+        BATCHES.clear();
+    }
+
+    /**
+     * Answers all batch requests with the given response, instead of answering each part.
+     *
+     * @param response response
+     */
+    public static void failBatches(final Response response) {
+        MockGoogleTransport.batchResponse = response;
+    }
+
+    /**
+     * Sets the lifetime of the access tokens issued from now on.
+     *
+     * @param seconds token lifetime
+     */
+    public static void setTokenLifetime(final long seconds) {
+        MockGoogleTransport.tokenLifetime = seconds;
+    }
+
+    /**
+     * Answers all token requests with the given response, instead of issuing tokens.
+     *
+     * @param response response
+     */
+    public static void failTokens(final Response response) {
+        MockGoogleTransport.tokenResponse = response;
+    }
+
+    /**
+     * @return number of API responses whose content was closed, so that the connection could be reused
+     */
+    public static int getReleased() {
+        return RELEASED.get();
+    }
+
+    /**
+     * @return number of API responses disconnected, so that the connection could not be reused
+     */
+    public static int getDisconnected() {
+        return DISCONNECTED.get();
+    }
+
+    /**
+     * @return number of access tokens issued
+     */
+    public static int getTokenRequests() {
+        return TOKEN_REQUESTS.get();
+    }
+
+    /**
+     * @return method and URL, without query string, of all API requests received, batched parts included
+     */
+    public static List<String> getRequests() {
+        synchronized (REQUESTS) {
+            return new ArrayList<>(REQUESTS);
+        }
+    }
+
+    /**
+     * @return number of parts of each batch request received, 0 for those failed via {@link #failBatches}
+     */
+    public static List<Integer> getBatches() {
+        synchronized (BATCHES) {
+            return new ArrayList<>(BATCHES);
+        }
+    }
+
+    public static Response ok(final String content) {
+        return new Response(200, content);
+    }
+
+    /**
+     * @param code HTTP status code
+     * @param reason error reason, as reported by Google APIs
+     * @return JSON error response
+     */
+    public static Response error(final int code, final String reason) {
+        return new Response(code, "{\"error\":{\"code\":" + code + ",\"message\":\"" + reason + "\","
+                + "\"errors\":[{\"domain\":\"global\",\"reason\":\"" + reason + "\",\"message\":\"" + reason
+                + "\"}]}}");
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(final String method, final String url) throws IOException {
+        return new MockLowLevelHttpRequest(url) {
+
+            @Override
+            public LowLevelHttpResponse execute() throws IOException {
+                if (TOKEN_URL.equals(url) && null != tokenResponse) {
+                    return new MockLowLevelHttpResponse().
+                            setStatusCode(tokenResponse.getStatus()).
+                            setContentType(Json.MEDIA_TYPE).
+                            setContent(tokenResponse.getContent());
+                }
+                if (TOKEN_URL.equals(url)) {
+                    return new MockLowLevelHttpResponse().
+                            setContentType(Json.MEDIA_TYPE).
+                            setContent("{\"access_token\":\"token" + TOKEN_REQUESTS.incrementAndGet() + "\","
+                                    + "\"expires_in\":" + tokenLifetime + ",\"token_type\":\"Bearer\"}");
+                }
+
+                String contentType = getContentType();
+                if (null != contentType && contentType.startsWith("multipart/mixed") && null != batchResponse) {
+                    BATCHES.add(0);
+                    return new MockLowLevelHttpResponse().
+                            setStatusCode(batchResponse.getStatus()).
+                            setContentType(Json.MEDIA_TYPE).
+                            setContent(batchResponse.getContent());
+                }
+                if (null != contentType && contentType.startsWith("multipart/mixed")) {
+                    return batch(contentType.substring(contentType.indexOf("boundary=") + 9), getContentAsString());
+                }
+
+                REQUESTS.add(method + ' ' + path(url));
+                Response response = responder.respond(method, url, getContentAsString());
+                return new MeteredResponse().
+                        setStatusCode(response.getStatus()).
+                        setContentType(Json.MEDIA_TYPE).
+                        setContent(response.getContent());
+            }
+        };
+    }
+
+    /**
+     * Response keeping track of how it is let go of.
+     */
+    private static class MeteredResponse extends MockLowLevelHttpResponse {
+
+        @Override
+        public InputStream getContent() throws IOException {
+            InputStream content = super.getContent();
+            return null == content ? null : new FilterInputStream(content) {
+
+                @Override
+                public void close() throws IOException {
+                    RELEASED.incrementAndGet();
+                    super.close();
+                }
+            };
+        }
+
+        @Override
+        public void disconnect() throws IOException {
+            DISCONNECTED.incrementAndGet();
+            super.disconnect();
+        }
+    }
+
+    private static String path(final String url) {
+        int query = url.indexOf('?');
+        return query < 0 ? url : url.substring(0, query);
+    }
+
+    private static LowLevelHttpResponse batch(final String boundary, final String content) {
+        StringBuilder response = new StringBuilder();
+        int parts = 0;
+        for (String part : content.split("--" + boundary)) {
+            // MIME headers, then the HTTP request: request line, headers and content
+            int start = part.indexOf("\r\n\r\n");
+            if (start < 0) {
+                continue;
+            }
+            String request = part.substring(start + 4);
+            String[] requestLine = request.substring(0, request.indexOf("\r\n")).split(" ");
+            int body = request.indexOf("\r\n\r\n");
+            String requestContent = body < 0 ? "" : request.substring(body + 4).trim();
+
+            parts++;
+            REQUESTS.add(requestLine[0] + ' ' + path(requestLine[1]));
+            Response result = responder.respond(requestLine[0], requestLine[1], requestContent);
+
+            response.append("--").append(BOUNDARY).append("\r\n").
+                    append("Content-Type: application/http\r\n\r\n").
+                    append("HTTP/1.1 ").append(result.getStatus()).append(" Mock\r\n").
+                    append("Content-Type: ").append(Json.MEDIA_TYPE).append("\r\n\r\n").
+                    append(result.getContent()).append("\r\n");
+        }
+        response.append("--").append(BOUNDARY).append("--\r\n");
+        BATCHES.add(parts);
+
+        return new MockLowLevelHttpResponse().
+                setContentType("multipart/mixed; boundary=" + BOUNDARY).
+                setContent(response.toString());
+    }
+}
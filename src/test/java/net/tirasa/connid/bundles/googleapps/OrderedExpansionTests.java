@@ -0,0 +1,169 @@
+/**
+ * Copyright © 2018 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class OrderedExpansionTests {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private ExecutorService executor;
+
+    private List<Integer> results;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        results = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void submissionOrder() {
+        Thread caller = Thread.currentThread();
+        List<Thread> consumers = new ArrayList<>();
+        OrderedExpansion<Integer> expansion = new OrderedExpansion<>(executor, result -> {
+            consumers.add(Thread.currentThread());
+            results.add(result);
+        }, Long.MAX_VALUE);
+
+        // later expansions complete first
+        for (int i = 0; i < 8; i++) {
+            int value = i;
+            expansion.submit(() -> {
+                Thread.sleep((8 - value) * 20);
+                return value;
+            });
+        }
+        expansion.flush();
+
+        assertEquals(IntStream.range(0, 8).boxed().collect(Collectors.toList()), results);
+        assertTrue(consumers.stream().allMatch(consumer -> consumer == caller));
+    }
+
+    @Test
+    public void inlineWithoutExecutor() {
+        OrderedExpansion<Integer> expansion = new OrderedExpansion<>(null, results::add, Long.MAX_VALUE);
+
+        expansion.submit(() -> 1);
+        // handed over straight away, without flush
+        assertEquals(Collections.singletonList(1), results);
+    }
+
+    @Test
+    public void errorPropagation() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        IllegalStateException error = new IllegalStateException("expansion failed");
+
+        OrderedExpansion<Integer> expansion = new OrderedExpansion<>(executor, results::add, Long.MAX_VALUE);
+        // the error is raised as soon as handed over, either on submit or on flush
+        assertSame(error, assertThrows(IllegalStateException.class, () -> {
+            expansion.submit(() -> 0);
+            expansion.submit(() -> {
+                blocked.await(10, TimeUnit.SECONDS);
+                throw error;
+            });
+            expansion.submit(() -> {
+                try {
+                    blocked.countDown();
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return 2;
+            });
+            expansion.flush();
+        }));
+        assertEquals(Collections.singletonList(0), results);
+        // expansions after the failed one are cancelled
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void deadline() {
+        OrderedExpansion<Integer> expansion = new OrderedExpansion<>(
+                executor, results::add, System.currentTimeMillis() + 200);
+        expansion.submit(() -> {
+            Thread.sleep(60000);
+            return 0;
+        });
+
+        assertTimeoutPreemptively(TIMEOUT, () -> assertThrows(OperationTimeoutException.class, expansion::flush));
+    }
+
+    @Test
+    public void sharedExecutorClosed() throws InterruptedException {
+        GoogleAppsConfiguration configuration = new GoogleAppsConfiguration();
+        configuration.setClientId("aclientid");
+        configuration.setClientSecret(new GuardedString("aclientsecret".toCharArray()));
+        configuration.setDomain("adomain");
+        configuration.setRefreshToken(new GuardedString("arefreshtoken".toCharArray()));
+        configuration.setHttpTransport(MockGoogleTransport.class.getName());
+        configuration.setExpansionThreads(1);
+        configuration.setExpansionQueueSize(1);
+        GoogleAppsClients clients = new GoogleAppsClients("sharedExecutorClosed", configuration);
+
+        CountDownLatch started = new CountDownLatch(1);
+        OrderedExpansion<Integer> expansion = new OrderedExpansion<>(
+                clients.getExpansionExecutor(), results::add, Long.MAX_VALUE);
+        expansion.submit(() -> {
+            started.countDown();
+            Thread.sleep(60000);
+            return 0;
+        });
+        started.await(10, TimeUnit.SECONDS);
+        // queued, never started
+        expansion.submit(() -> 1);
+
+        clients.close();
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            // run on the caller thread, after shutdown
+            new OrderedExpansion<Integer>(clients.getExpansionExecutor(), results::add, Long.MAX_VALUE).
+                    submit(() -> 2);
+            assertEquals(Collections.singletonList(2), results);
+
+            assertThrows(ConnectorException.class, expansion::flush);
+        });
+    }
+}
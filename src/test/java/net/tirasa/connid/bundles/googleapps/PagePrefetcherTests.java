@@ -0,0 +1,387 @@
+/**
+ * Copyright © 2018 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.admin.directory.Directory;
+import com.google.api.services.admin.directory.model.Users;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PagePrefetcherTests {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private Directory directory;
+
+    private ExecutorService executor;
+
+    private AtomicInteger fetched;
+
+    private List<String> consumed;
+
+    @BeforeEach
+    public void setUp() {
+        directory = new Directory.Builder(new MockGoogleTransport(), new GsonFactory(), null).
+                setApplicationName("ConnId").
+                build();
+        executor = Executors.newFixedThreadPool(4);
+        fetched = new AtomicInteger();
+        consumed = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private Directory.Users.List list(final String domain) throws IOException {
+        return directory.users().list().setDomain(domain);
+    }
+
+    /**
+     * @param count number of pages of each list
+     * @return fetcher returning pages with etag domain:index, linked by page tokens
+     */
+    private Function<Directory.Users.List, Users> pages(final int count) {
+        return request -> {
+            int index = null == request.getPageToken() ? 0 : Integer.parseInt(request.getPageToken());
+            fetched.incrementAndGet();
+            return new Users().
+                    setEtag(request.getDomain() + ':' + index).
+                    setNextPageToken(index + 1 < count ? String.valueOf(index + 1) : null);
+        };
+    }
+
+    private static List<String> expected(final String domain, final int count) {
+        return IntStream.range(0, count).mapToObj(index -> domain + ':' + index).collect(Collectors.toList());
+    }
+
+    @Test
+    public void pageOrder() throws IOException {
+        new PagePrefetcher<>(executor, list("adomain"), pages(10), 2).forEach(page -> consumed.add(page.getEtag()));
+
+        assertEquals(expected("adomain", 10), consumed);
+    }
+
+    @Test
+    public void boundedDepth() throws IOException {
+        int depth = 2;
+        List<Integer> fetchedWhileHandling = new ArrayList<>();
+        new PagePrefetcher<>(executor, list("adomain"), pages(50), depth).forEach(page -> {
+            if (consumed.isEmpty()) {
+                try {
+                    // plenty of time for the fetcher to run ahead, if it were not bounded
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                fetchedWhileHandling.add(fetched.get());
+            }
+            consumed.add(page.getEtag());
+        });
+
+        // the page being handled, plus at most depth pages ahead
+        assertTrue(fetchedWhileHandling.get(0) <= depth + 1, "fetched " + fetchedWhileHandling);
+        assertEquals(expected("adomain", 50), consumed);
+    }
+
+    @Test
+    public void slowConsumerDoesNotHoldExecutor() throws Exception {
+        ExecutorService shared = Executors.newSingleThreadExecutor();
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        try {
+            // the first search stops on its first page, with more pages to fetch than depth
+            Directory.Users.List first = list("slow");
+            Future<?> slow = executor.submit(() -> new PagePrefetcher<>(shared, first, pages(10), 1).
+                    forEach(page -> {
+                        handling.countDown();
+                        try {
+                            proceed.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }));
+            assertTrue(handling.await(10, TimeUnit.SECONDS));
+
+            // the only executor thread is not waiting for the first consumer
+            assertTimeoutPreemptively(TIMEOUT, () -> new PagePrefetcher<>(shared, list("adomain"), pages(5), 1).
+                    forEach(page -> consumed.add(page.getEtag())));
+            assertEquals(expected("adomain", 5), consumed);
+
+            proceed.countDown();
+            slow.get(10, TimeUnit.SECONDS);
+        } finally {
+            shared.shutdownNow();
+        }
+    }
+
+    @Test
+    public void fetchErrorRethrown() throws IOException {
+        IllegalStateException error = new IllegalStateException("fetch failed");
+        Function<Directory.Users.List, Users> pages = pages(10);
+        PagePrefetcher<Directory.Users.List, Users> prefetcher = new PagePrefetcher<>(executor, list("adomain"),
+                request -> {
+                    if ("3".equals(request.getPageToken())) {
+                        throw error;
+                    }
+                    return pages.apply(request);
+                }, 2);
+
+        assertSame(error, assertThrows(IllegalStateException.class,
+                () -> prefetcher.forEach(page -> consumed.add(page.getEtag()))));
+        assertEquals(expected("adomain", 3), consumed);
+    }
+
+    @Test
+    public void fetcherInterruptedOnConsumerFailure() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Function<Directory.Users.List, Users> pages = pages(10);
+        PagePrefetcher<Directory.Users.List, Users> prefetcher = new PagePrefetcher<>(executor, list("adomain"),
+                request -> {
+                    if (null != request.getPageToken()) {
+                        fetching.countDown();
+                        try {
+                            Thread.sleep(60000);
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return pages.apply(request);
+                }, 1);
+
+        IllegalStateException error = new IllegalStateException("consumer failed");
+        assertSame(error, assertThrows(IllegalStateException.class, () -> prefetcher.forEach(page -> {
+            try {
+                // fails while the next page is being fetched
+                fetching.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw error;
+        })));
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sharedExecutorClosed() throws Exception {
+        GoogleAppsConfiguration configuration = new GoogleAppsConfiguration();
+        configuration.setClientId("aclientid");
+        configuration.setClientSecret(new GuardedString("aclientsecret".toCharArray()));
+        configuration.setDomain("adomain");
+        configuration.setRefreshToken(new GuardedString("arefreshtoken".toCharArray()));
+        configuration.setHttpTransport(MockGoogleTransport.class.getName());
+        configuration.setPrefetchThreads(1);
+        GoogleAppsClients clients = new GoogleAppsClients("sharedExecutorClosed", configuration);
+
+        CountDownLatch started = new CountDownLatch(1);
+        Function<Directory.Users.List, Users> blocking = request -> {
+            started.countDown();
+            try {
+                Thread.sleep(60000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        };
+        // the first search takes the only prefetch thread, the second one waits for it
+        Directory.Users.List first = list("adomain");
+        Future<?> running = executor.submit(() -> new PagePrefetcher<>(
+                clients.getPrefetchExecutor(), first, blocking, 1).forEach(page -> {
+        }));
+        started.await(10, TimeUnit.SECONDS);
+        Directory.Users.List second = list("adomain");
+        Future<?> queued = executor.submit(() -> new PagePrefetcher<>(
+                clients.getPrefetchExecutor(), second, pages(1), 1).forEach(page -> {
+        }));
+        Thread.sleep(200);
+
+        clients.close();
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (Future<?> search : new Future<?>[] { running, queued }) {
+                ExecutionException e = assertThrows(ExecutionException.class, search::get);
+                assertTrue(e.getCause() instanceof ConnectorException, e.getCause().toString());
+            }
+        });
+    }
+
+    @Test
+    public void mergeShards() throws IOException {
+        List<Directory.Users.List> shards = new ArrayList<>();
+        shards.add(list("domain1"));
+        shards.add(list("domain2"));
+        shards.add(list("domain3"));
+
+        new PagePrefetcher<>(executor, shards, pages(5), 3).forEach(page -> consumed.add(page.getEtag()));
+
+        // all pages of all shards, each shard in order
+        assertEquals(15, consumed.size());
+        for (String domain : new String[] { "domain1", "domain2", "domain3" }) {
+            assertEquals(expected(domain, 5), consumed.stream().
+                    filter(etag -> etag.startsWith(domain + ':')).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void pagesWithTheirRequest() throws IOException {
+        List<Directory.Users.List> shards = new ArrayList<>();
+        shards.add(list("domain1"));
+        shards.add(list("domain2"));
+        shards.add(list("domain3"));
+
+        new PagePrefetcher<>(executor, shards, pages(4), 3).forEach((request, page) -> {
+            assertTrue(page.getEtag().startsWith(request.getDomain() + ':'), request.getDomain() + ' ' + page);
+            consumed.add(page.getEtag());
+        });
+
+        assertEquals(12, consumed.size());
+    }
+
+    @Test
+    public void endOfEachShard() throws IOException {
+        List<Directory.Users.List> shards = new ArrayList<>();
+        shards.add(list("domain1"));
+        shards.add(list("empty"));
+        shards.add(list("domain3"));
+        Function<Directory.Users.List, Users> pages = pages(2);
+
+        // returns once each shard has ended, also when without pages
+        assertTimeoutPreemptively(TIMEOUT, () -> new PagePrefetcher<>(executor, shards,
+                request -> "empty".equals(request.getDomain()) ? null : pages.apply(request), 1).
+                forEach(page -> consumed.add(page.getEtag())));
+
+        assertEquals(4, consumed.size());
+    }
+
+    @Test
+    public void shardErrorPropagation() throws Exception {
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        IllegalStateException error = new IllegalStateException("shard failed");
+        List<Directory.Users.List> shards = new ArrayList<>();
+        shards.add(list("failing"));
+        shards.add(list("blocking"));
+
+        PagePrefetcher<Directory.Users.List, Users> prefetcher = new PagePrefetcher<>(executor, shards, request -> {
+            try {
+                if ("failing".equals(request.getDomain())) {
+                    // fail once the other shard is fetching
+                    blocking.await();
+                    throw error;
+                }
+                blocking.countDown();
+                Thread.sleep(60000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }, 2);
+
+        assertSame(error, assertThrows(IllegalStateException.class,
+                () -> prefetcher.forEach(page -> consumed.add(page.getEtag()))));
+        // the other shards are stopped
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shardConcurrencyBoundedByExecutor() throws IOException {
+        ExecutorService bounded = Executors.newFixedThreadPool(2);
+        try {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            List<Directory.Users.List> shards = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                shards.add(list("domain" + i));
+            }
+            Function<Directory.Users.List, Users> pages = pages(3);
+
+            new PagePrefetcher<>(bounded, shards, request -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return pages.apply(request);
+            }, 6).forEach(page -> consumed.add(page.getEtag()));
+
+            assertEquals(18, consumed.size());
+            assertTrue(maxRunning.get() <= 2, "max concurrent fetches " + maxRunning);
+        } finally {
+            bounded.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shardConcurrencyBoundedPerSearch() throws IOException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Directory.Users.List> shards = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            shards.add(list("domain" + i));
+        }
+        Function<Directory.Users.List, Users> pages = pages(3);
+
+        // 4 executor threads, at most 2 of them taken by this search
+        new PagePrefetcher<>(executor, shards, request -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return pages.apply(request);
+        }, 6, 2).forEach(page -> consumed.add(page.getEtag()));
+
+        assertEquals(18, consumed.size());
+        assertEquals(2, maxRunning.get());
+        for (Directory.Users.List shard : shards) {
+            assertEquals(expected(shard.getDomain(), 3), consumed.stream().
+                    filter(etag -> etag.startsWith(shard.getDomain() + ':')).collect(Collectors.toList()));
+        }
+    }
+}
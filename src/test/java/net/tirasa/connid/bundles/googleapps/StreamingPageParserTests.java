@@ -0,0 +1,123 @@
+/**
+ * Copyright © 2018 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.admin.directory.Directory;
+import com.google.api.services.admin.directory.model.User;
+import com.google.api.services.admin.directory.model.Users;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class StreamingPageParserTests {
+
+    private Directory directory;
+
+    private EndpointStatistics statistics;
+
+    private final List<String> consumed = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        directory = new Directory.Builder(new MockGoogleTransport(), new GsonFactory(), null).
+                setApplicationName("ConnId").
+                build();
+        statistics = new EndpointStatistics("directory.users.list");
+    }
+
+    private static String user(final String email) {
+        return "{\"primaryEmail\":\"" + email + "\",\"name\":{\"givenName\":\"Given\"},\"aliases\":[\"a\",\"b\"]}";
+    }
+
+    private Users parse(final String content) throws IOException {
+        MockGoogleTransport.reset((method, url, body) -> MockGoogleTransport.ok(content));
+        return StreamingPageParser.parse(directory.users().list().setCustomer("my_customer"),
+                "users", User.class, user -> consumed.add(user.getPrimaryEmail()), statistics);
+    }
+
+    @Test
+    public void nextPageTokenAfterItems() throws IOException {
+        Users page = parse("{\"kind\":\"admin#directory#users\",\"users\":[" + user("user1@adomain") + ","
+                + user("user2@adomain") + "],\"nextPageToken\":\"page2\"}");
+
+        assertEquals(Arrays.asList("user1@adomain", "user2@adomain"), consumed);
+        assertEquals("page2", page.getNextPageToken());
+        assertEquals("admin#directory#users", page.getKind());
+        // items are handed over, not kept in the page
+        assertNull(page.getUsers());
+        assertEquals(2, statistics.getEntities());
+    }
+
+    @Test
+    public void nextPageTokenBeforeItems() throws IOException {
+        Users page = parse("{\"nextPageToken\":\"page2\",\"users\":[" + user("user1@adomain") + "]}");
+
+        assertEquals(Arrays.asList("user1@adomain"), consumed);
+        assertEquals("page2", page.getNextPageToken());
+    }
+
+    @Test
+    public void lastPage() throws IOException {
+        Users page = parse("{\"users\":[" + user("user1@adomain") + "]}");
+
+        assertEquals(Arrays.asList("user1@adomain"), consumed);
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test
+    public void skipChildren() throws IOException {
+        Users page = parse("{\"trigger\":{\"nested\":[1,{\"users\":[" + user("nested@adomain") + "]}],"
+                + "\"nextPageToken\":\"nested\"},\"count\":2,\"flags\":[true,false],"
+                + "\"users\":[" + user("user1@adomain") + "],\"nextPageToken\":\"page2\"}");
+
+        // fields not holding items are skipped whole, whatever they contain
+        assertEquals(Arrays.asList("user1@adomain"), consumed);
+        assertEquals("page2", page.getNextPageToken());
+    }
+
+    @Test
+    public void errorBeforeAnyItem() {
+        // nothing handed over yet: the error can be retried
+        assertThrows(IOException.class, () -> parse("{\"users\":[{\"primaryEmail\":"));
+
+        assertEquals(0, consumed.size());
+    }
+
+    @Test
+    public void truncatedAfterItems() {
+        // a page ending early is not taken as complete, even if all items read were whole
+        assertThrows(ConnectorException.class, () -> parse("{\"users\":[" + user("user1@adomain") + "]"));
+        assertThrows(IOException.class, () -> parse("{\"nextPageToken\":\"page2\""));
+    }
+
+    @Test
+    public void noRetryAfterPartialDelivery() {
+        // items already handed over: not reported as IOException, so that the request is not retried
+        assertThrows(ConnectorException.class, () -> parse("{\"users\":[" + user("user1@adomain") + ",{\"prim"));
+
+        assertEquals(Arrays.asList("user1@adomain"), consumed);
+        assertEquals(1, statistics.getEntities());
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright © 2018 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.googleapps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.admin.directory.Directory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class WriteCoalescerTests {
+
+    private static final RequestResultHandler<Directory.Users.Delete, Void, String> HANDLER =
+            new RequestResultHandler<Directory.Users.Delete, Void, String>() {
+
+        @Override
+        public String handleResult(final Directory.Users.Delete request, final Void value) {
+            return request.getUserKey();
+        }
+    };
+
+    private Directory directory;
+
+    private ExecutorService callers;
+
+    private WriteCoalescer coalescer;
+
+    @BeforeEach
+    public void setUp() {
+        MockGoogleTransport.reset((method, url, content) -> url.endsWith("/missing")
+                ? MockGoogleTransport.error(404, "notFound")
+                : new MockGoogleTransport.Response(204, ""));
+        directory = new Directory.Builder(new MockGoogleTransport(), new GsonFactory(), null).
+                setApplicationName("ConnId").
+                build();
+        callers = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (null != coalescer) {
+            coalescer.close();
+        }
+        callers.shutdownNow();
+    }
+
+    private void newCoalescer(final long window, final int batchSize) {
+        newCoalescer(window, batchSize, 0);
+    }
+
+    private void newCoalescer(final long window, final int batchSize, final int retryBudget) {
+        coalescer = new WriteCoalescer(
+                null, new IOStatistics(new TransferStatistics()), window, batchSize, retryBudget);
+    }
+
+    private String deleteUser(final String user) throws Exception {
+        return coalescer.execute(directory.users().delete(user), HANDLER, Long.MAX_VALUE);
+    }
+
+    /**
+     * Deletes the given users, each from its own caller thread.
+     */
+    private List<Future<String>> deleteUsers(final String... users) {
+        List<Future<String>> results = new ArrayList<>();
+        for (String user : users) {
+            results.add(callers.submit(() -> deleteUser(user)));
+        }
+        return results;
+    }
+
+    private static Throwable error(final Future<String> result) throws Exception {
+        try {
+            result.get(10, TimeUnit.SECONDS);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    @Test
+    public void coalesceConcurrentWrites() throws Exception {
+        newCoalescer(1000, 10);
+
+        List<Future<String>> results = deleteUsers("user0", "user1", "user2", "user3", "user4");
+
+        List<String> values = new ArrayList<>();
+        for (Future<String> result : results) {
+            values.add(result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList("user0", "user1", "user2", "user3", "user4"), values);
+        assertEquals(Collections.singletonList(5), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void sendWhenBatchSizeReached() throws Exception {
+        // the window is never waited for, as the batch is sent as soon as full
+        newCoalescer(60000, 2);
+
+        List<Future<String>> results = deleteUsers("user0", "user1");
+
+        assertEquals("user0", results.get(0).get(10, TimeUnit.SECONDS));
+        assertEquals("user1", results.get(1).get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(2), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void perCallerOutcome() throws Exception {
+        newCoalescer(1000, 10);
+
+        List<Future<String>> results = deleteUsers("user0", "missing", "user2");
+
+        assertEquals("user0", results.get(0).get(10, TimeUnit.SECONDS));
+        assertTrue(error(results.get(1)) instanceof UnknownUidException);
+        assertEquals("user2", results.get(2).get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(3), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void batchFailureFanOut() throws Exception {
+        MockGoogleTransport.failBatches(new MockGoogleTransport.Response(500, "{}"));
+        newCoalescer(1000, 10);
+
+        List<Future<String>> results = deleteUsers("user0", "user1", "user2");
+
+        for (Future<String> result : results) {
+            Throwable error = error(result);
+            assertTrue(error instanceof ConnectorException);
+            assertFalse(error instanceof UnknownUidException);
+        }
+        assertEquals(Collections.singletonList(0), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void close() throws Exception {
+        newCoalescer(60000, 10);
+
+        Future<String> result = callers.submit(() -> deleteUser("user0"));
+        Thread.sleep(200);
+        coalescer.close();
+
+        // pending requests are failed, without waiting for the window, and further requests are rejected
+        assertTrue(error(result) instanceof ConnectorException);
+        assertThrows(ConnectorException.class, () -> deleteUser("user1"));
+        assertEquals(Collections.emptyList(), MockGoogleTransport.getBatches());
+    }
+
+    @Test
+    public void retryLoopStopsBeforeDeadline() {
+        MockGoogleTransport.reset((method, url, content) -> MockGoogleTransport.error(503, "backendError"));
+        newCoalescer(100, 10, 10);
+
+        // time for one back-off only, after the window
+        long deadline = System.currentTimeMillis() + 3600;
+        ConnectorException error = assertThrows(ConnectorException.class,
+                () -> coalescer.execute(directory.users().delete("user0"), HANDLER, deadline));
+
+        assertFalse(error instanceof OperationTimeoutException);
+        assertEquals(Arrays.asList(1, 1), MockGoogleTransport.getBatches());
+        assertTrue(System.currentTimeMillis() < deadline);
+    }
+}